@@ -0,0 +1,72 @@
+package prob.lems;
+
+import java.util.function.Supplier;
+
+/**
+ * Null defaults behind the {@code or...} extension methods.<br>
+ * <br>
+ * {@code or(object, ifNull)} always builds its fallback, even if {@code object} is not {@code null}.
+ * The variants here only pay for the fallback when it is used ({@link #orGet}), never box ({@link #orInt} and friends),
+ * or build it only once for all callers ({@link #orCached}).
+ */
+public final class Defaults {
+
+    private Defaults() {
+    }
+
+    /** {@code ifNull} is only called if {@code object} is {@code null} */
+    public static <T> T orGet(T object, Supplier<? extends T> ifNull) {
+        return object != null ? object : ifNull.get();
+    }
+
+    public static int orInt(Integer object, int ifNull) {
+        return object != null ? object.intValue() : ifNull;
+    }
+
+    public static long orLong(Long object, long ifNull) {
+        return object != null ? object.longValue() : ifNull;
+    }
+
+    public static double orDouble(Double object, double ifNull) {
+        return object != null ? object.doubleValue() : ifNull;
+    }
+
+    /** {@code ifNull} is computed at most once, and then shared by all callers */
+    public static <T> T orCached(T object, Cached<? extends T> ifNull) {
+        return object != null ? object : ifNull.get();
+    }
+
+    /**
+     * A default value that is computed on first use, eg. a parsed configuration.<br>
+     * Thread-safe: concurrent first calls compute the value only once, later calls only read a volatile field.
+     * Keep instances in static fields, a new instance per call would compute the value again.
+     */
+    public static final class Cached<T> implements Supplier<T> {
+
+        private Supplier<? extends T> supplier;
+        private volatile T value;
+        private volatile boolean computed;
+
+        private Cached(Supplier<? extends T> supplier) {
+            this.supplier = supplier;
+        }
+
+        public static <T> Cached<T> of(Supplier<? extends T> supplier) {
+            return new Cached<>(supplier);
+        }
+
+        @Override
+        public T get() {
+            if (!computed) {
+                synchronized (this) {
+                    if (!computed) {
+                        value = supplier.get();
+                        computed = true;
+                        supplier = null; // may hold on to large inputs
+                    }
+                }
+            }
+            return value;
+        }
+    }
+}
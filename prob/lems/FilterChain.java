@@ -0,0 +1,210 @@
+package prob.lems;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Collects several filters for a stream, and applies them as a single {@code filter} stage.<br>
+ * <br>
+ * <pre>
+ * stream.filters().where(p1).where(p2).where(p3).apply()
+ * </pre>
+ * does the same as {@code stream.filter(p1).filter(p2).filter(p3)}, but with one pipeline stage instead of three.<br>
+ * An element is only tested by a predicate if all predicates before it accepted it, like with chained filters,
+ * so {@code where(Objects::nonNull).where(s -> s.length() > 1)} is safe.<br>
+ * <br>
+ * With {@link #adaptive()}, predicates added with {@link #whereIndependent(Predicate)} are also reordered while the stream runs,
+ * so that cheap predicates which reject many elements are tested first. They are only reordered among the independent predicates
+ * right next to them: a predicate added with {@link #where(Predicate)} keeps its place, all predicates before it still guard it,
+ * and it still guards all predicates after it.
+ */
+public final class FilterChain<T> {
+
+    /** by default, every 64th element is used to measure the predicates */
+    public static final int DEFAULT_SAMPLE_RATE = 64;
+
+    private final Stream<T> stream;
+    private final List<Predicate<? super T>> predicates = new ArrayList<>();
+    private final List<Boolean> independent = new ArrayList<>();
+    private int sampleRate;
+
+    private FilterChain(Stream<T> stream) {
+        this.stream = stream;
+    }
+
+    public static <T> FilterChain<T> of(Stream<T> stream) {
+        return new FilterChain<>(stream);
+    }
+
+    public FilterChain<T> where(Predicate<? super T> predicate) {
+        predicates.add(predicate);
+        independent.add(false);
+        return this;
+    }
+
+    /**
+     * A predicate that {@link #adaptive()} may test before or after the independent predicates next to it: it must not have side effects,
+     * and must neither rely on them having accepted the element, nor be relied on by them.
+     */
+    public FilterChain<T> whereIndependent(Predicate<? super T> predicate) {
+        predicates.add(predicate);
+        independent.add(true);
+        return this;
+    }
+
+    /** reorder the independent predicates by their measured cost and selectivity */
+    public FilterChain<T> adaptive() {
+        return adaptive(DEFAULT_SAMPLE_RATE);
+    }
+
+    /** reorder the independent predicates, measuring them on about one in {@code sampleRate} elements, which must be a power of two */
+    public FilterChain<T> adaptive(int sampleRate) {
+        if (sampleRate < 1 || Integer.bitCount(sampleRate) != 1) {
+            throw new IllegalArgumentException("sampleRate must be a power of two: " + sampleRate);
+        }
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    /** the stream with all predicates applied as one stage */
+    public Stream<T> apply() {
+        @SuppressWarnings("unchecked")
+        Predicate<? super T>[] all = (Predicate<? super T>[]) predicates.toArray(new Predicate<?>[0]);
+        if (all.length == 0) {
+            return stream;
+        }
+        if (all.length == 1) {
+            return stream.filter(all[0]);
+        }
+        int[] runs = new int[all.length];
+        boolean reorderable = false;
+        for (int i = 0; i < all.length; i++) {
+            // the start of the run of independent predicates that i belongs to, or i itself
+            runs[i] = i > 0 && independent.get(i) && independent.get(i - 1) ? runs[i - 1] : i;
+            reorderable |= runs[i] != i;
+        }
+        return stream.filter(sampleRate > 0 && reorderable ? new Adaptive<>(all, runs, sampleRate) : new Fused<>(all));
+    }
+
+    /** all predicates in the given order */
+    static final class Fused<T> implements Predicate<T> {
+
+        private final Predicate<? super T>[] predicates;
+
+        Fused(Predicate<? super T>[] predicates) {
+            this.predicates = predicates;
+        }
+
+        @Override
+        public boolean test(T element) {
+            for (Predicate<? super T> predicate : predicates) {
+                if (!predicate.test(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * All predicates, each run of independent predicates ordered by expected cost per rejected element.<br>
+     * <br>
+     * A sampled element is tested like any other, in the current order and only until the first predicate rejects it,
+     * measuring the time each tested predicate takes and whether it rejects the element.
+     * Every {@link #REORDER_INTERVAL} samples, the order within each run is recomputed: the predicate with the lowest
+     * {@code average time / rejection rate} goes first. The rejection rate of a predicate is that of the elements it got to see,
+     * which is close enough, as the predicates of a run are independent. The counters are {@link LongAdder}s and the order is swapped
+     * as a whole, so this also works in parallel streams without locking.
+     */
+    static final class Adaptive<T> implements Predicate<T> {
+
+        static final int REORDER_INTERVAL = 256;
+
+        private final Predicate<? super T>[] predicates;
+        // for each predicate, the index of the first predicate of its run, see FilterChain.apply()
+        private final int[] runs;
+        private final int sampleMask;
+        private final LongAdder[] evaluated;
+        private final LongAdder[] rejected;
+        private final LongAdder[] nanos;
+        private final AtomicInteger samples = new AtomicInteger();
+        private volatile int[] order;
+
+        Adaptive(Predicate<? super T>[] predicates, int[] runs, int sampleRate) {
+            this.predicates = predicates;
+            this.runs = runs;
+            this.sampleMask = sampleRate - 1;
+            this.evaluated = adders(predicates.length);
+            this.rejected = adders(predicates.length);
+            this.nanos = adders(predicates.length);
+            int[] initial = new int[predicates.length];
+            Arrays.setAll(initial, i -> i);
+            this.order = initial;
+        }
+
+        private static LongAdder[] adders(int n) {
+            LongAdder[] adders = new LongAdder[n];
+            Arrays.setAll(adders, i -> new LongAdder());
+            return adders;
+        }
+
+        @Override
+        public boolean test(T element) {
+            if ((ThreadLocalRandom.current().nextInt() & sampleMask) == 0) {
+                return sample(element);
+            }
+            for (int i : order) {
+                if (!predicates[i].test(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean sample(T element) {
+            boolean accepted = true;
+            for (int i : order) {
+                long start = System.nanoTime();
+                boolean result = predicates[i].test(element);
+                nanos[i].add(System.nanoTime() - start);
+                evaluated[i].increment();
+                if (!result) {
+                    rejected[i].increment();
+                    accepted = false;
+                    break;
+                }
+            }
+            if (samples.incrementAndGet() % REORDER_INTERVAL == 0) {
+                reorder();
+            }
+            return accepted;
+        }
+
+        private void reorder() {
+            int n = predicates.length;
+            double[] score = new double[n];
+            Integer[] sorted = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                long count = Math.max(1, evaluated[i].sum());
+                double cost = (double) nanos[i].sum() / count;
+                double rejectionRate = (double) rejected[i].sum() / count;
+                // a predicate that never rejects anything gets a huge score, so it goes last
+                score[i] = cost / Math.max(rejectionRate, 1e-9);
+                sorted[i] = i;
+            }
+            // the runs keep their place, a predicate of a run of its own stays where it is
+            Arrays.sort(sorted, (a, b) -> runs[a] != runs[b] ? Integer.compare(runs[a], runs[b]) : Double.compare(score[a], score[b]));
+            int[] newOrder = new int[n];
+            for (int i = 0; i < n; i++) {
+                newOrder[i] = sorted[i];
+            }
+            order = newOrder;
+        }
+    }
+}
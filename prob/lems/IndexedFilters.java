@@ -0,0 +1,281 @@
+package prob.lems;
+
+import java.util.Comparator;
+import java.util.Spliterator;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Filters that pass the encounter index of each element to the predicate, behind the {@code filter(BiPredicate)} extension methods.<br>
+ * <br>
+ * The index is a counter in the spliterator, so no extra stage or wrapper object per element is needed.
+ * Parallel streams stay parallel, as long as the source is {@link Spliterator#SUBSIZED}:
+ * then every split knows how many elements come before it, and starts counting from there.
+ * Other sources are not split at all, as the index of their elements is only known sequentially.
+ */
+public final class IndexedFilters {
+
+    private IndexedFilters() {
+    }
+
+    /** a predicate on an {@code int} and its index in the stream */
+    @FunctionalInterface
+    public interface IndexedIntPredicate {
+        boolean test(int value, long index);
+    }
+
+    /** a predicate on a {@code long} and its index in the stream */
+    @FunctionalInterface
+    public interface IndexedLongPredicate {
+        boolean test(long value, long index);
+    }
+
+    /**
+     * Keeps the elements of {@code stream} for which {@code predicate} holds.
+     * The index has to be boxed for a {@link BiPredicate}, which only allocates beyond {@link Integer}'s cache,
+     * use an {@code IntStream} or {@code LongStream} to avoid that.
+     * Throws an {@link ArithmeticException} once the index does not fit into an {@code int}.
+     */
+    public static <T> Stream<T> filter(Stream<T> stream, BiPredicate<? super T, Integer> predicate) {
+        return StreamSupport.stream(new RefSpliterator<>(stream.spliterator(), predicate, 0), stream.isParallel()).onClose(stream::close);
+    }
+
+    public static IntStream filter(IntStream stream, IndexedIntPredicate predicate) {
+        return StreamSupport.intStream(new IntSpliterator(stream.spliterator(), predicate, 0), stream.isParallel()).onClose(stream::close);
+    }
+
+    public static LongStream filter(LongStream stream, IndexedLongPredicate predicate) {
+        return StreamSupport.longStream(new LongSpliterator(stream.spliterator(), predicate, 0), stream.isParallel()).onClose(stream::close);
+    }
+
+    /** filtering keeps all characteristics, except for knowing the size */
+    private static int characteristics(Spliterator<?> source) {
+        return source.characteristics() & ~(Spliterator.SIZED | Spliterator.SUBSIZED);
+    }
+
+    static final class RefSpliterator<T> implements Spliterator<T>, Consumer<T> {
+
+        private final Spliterator<T> source;
+        private final BiPredicate<? super T, Integer> predicate;
+        private long index;
+
+        // the result of the last element passed to accept()
+        private T current;
+        private boolean matched;
+
+        RefSpliterator(Spliterator<T> source, BiPredicate<? super T, Integer> predicate, long index) {
+            this.source = source;
+            this.predicate = predicate;
+            this.index = index;
+        }
+
+        @Override
+        public void accept(T element) {
+            current = element;
+            matched = predicate.test(element, Math.toIntExact(index++));
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (source.tryAdvance(this)) {
+                if (matched) {
+                    T element = current;
+                    current = null;
+                    action.accept(element);
+                    return true;
+                }
+            }
+            current = null;
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super T> action) {
+            source.forEachRemaining(element -> {
+                if (predicate.test(element, Math.toIntExact(index++))) {
+                    action.accept(element);
+                }
+            });
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            if (!source.hasCharacteristics(SUBSIZED)) {
+                return null;
+            }
+            Spliterator<T> prefix = source.trySplit();
+            if (prefix == null) {
+                return null;
+            }
+            RefSpliterator<T> split = new RefSpliterator<>(prefix, predicate, index);
+            // SUBSIZED: the prefix knows its exact size, which is the offset of the remaining elements
+            index += prefix.getExactSizeIfKnown();
+            return split;
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return IndexedFilters.characteristics(source);
+        }
+
+        @Override
+        public Comparator<? super T> getComparator() {
+            return source.getComparator();
+        }
+    }
+
+    static final class IntSpliterator implements Spliterator.OfInt, IntConsumer {
+
+        private final Spliterator.OfInt source;
+        private final IndexedIntPredicate predicate;
+        private long index;
+
+        private int current;
+        private boolean matched;
+
+        IntSpliterator(Spliterator.OfInt source, IndexedIntPredicate predicate, long index) {
+            this.source = source;
+            this.predicate = predicate;
+            this.index = index;
+        }
+
+        @Override
+        public void accept(int value) {
+            current = value;
+            matched = predicate.test(value, index++);
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            while (source.tryAdvance((IntConsumer) this)) {
+                if (matched) {
+                    action.accept(current);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            source.forEachRemaining((int value) -> {
+                if (predicate.test(value, index++)) {
+                    action.accept(value);
+                }
+            });
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            if (!source.hasCharacteristics(SUBSIZED)) {
+                return null;
+            }
+            Spliterator.OfInt prefix = source.trySplit();
+            if (prefix == null) {
+                return null;
+            }
+            IntSpliterator split = new IntSpliterator(prefix, predicate, index);
+            // SUBSIZED: the prefix knows its exact size, which is the offset of the remaining elements
+            index += prefix.getExactSizeIfKnown();
+            return split;
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return IndexedFilters.characteristics(source);
+        }
+
+        @Override
+        public Comparator<? super Integer> getComparator() {
+            return source.getComparator();
+        }
+    }
+
+    static final class LongSpliterator implements Spliterator.OfLong, LongConsumer {
+
+        private final Spliterator.OfLong source;
+        private final IndexedLongPredicate predicate;
+        private long index;
+
+        private long current;
+        private boolean matched;
+
+        LongSpliterator(Spliterator.OfLong source, IndexedLongPredicate predicate, long index) {
+            this.source = source;
+            this.predicate = predicate;
+            this.index = index;
+        }
+
+        @Override
+        public void accept(long value) {
+            current = value;
+            matched = predicate.test(value, index++);
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            while (source.tryAdvance((LongConsumer) this)) {
+                if (matched) {
+                    action.accept(current);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            source.forEachRemaining((long value) -> {
+                if (predicate.test(value, index++)) {
+                    action.accept(value);
+                }
+            });
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            if (!source.hasCharacteristics(SUBSIZED)) {
+                return null;
+            }
+            Spliterator.OfLong prefix = source.trySplit();
+            if (prefix == null) {
+                return null;
+            }
+            LongSpliterator split = new LongSpliterator(prefix, predicate, index);
+            // SUBSIZED: the prefix knows its exact size, which is the offset of the remaining elements
+            index += prefix.getExactSizeIfKnown();
+            return split;
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return IndexedFilters.characteristics(source);
+        }
+
+        @Override
+        public Comparator<? super Long> getComparator() {
+            return source.getComparator();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package prob.lems;
+
+import lombok.experimental.ExtensionMethod;
+
+/**
+ * Workaround for {@link JNIProblem}: an extension method for each primitive type, instead of a single one taking a {@code long}.<br>
+ * 
+ * Every call site then binds to the overload of its exact argument type, so no compiler has to insert an {@code i2l}
+ * (which Eclipse forgets, causing the {@code VerifyError}), and nothing gets boxed.
+ * {@code make check_extension_calls} verifies this in the compiled classes.
+ * 
+ * (this has to be its own class, as {@link JNIProblem.Extensions} is visible to all classes nested in {@link JNIProblem})
+ */
+@ExtensionMethod(JNIProblemWorkaround.Extensions.class)
+public class JNIProblemWorkaround {
+
+    public static class Extensions {
+        public static void hello(String that, int n) {
+            // nothing here
+        }
+
+        public static void hello(String that, long n) {
+            // nothing here
+        }
+
+        public static void hello(String that, double n) {
+            // nothing here
+        }
+    }
+
+    public void someMethod() {
+        // calls hello(String, int), there is nothing to widen anymore
+        "".hello(5);
+        "".hello(5l);
+        "".hello(5.0);
+    }
+
+    public static void main(String[] args) {
+        new JNIProblemWorkaround().someMethod();
+        System.out.println("works in javac and Eclipse");
+    }
+}
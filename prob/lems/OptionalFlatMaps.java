@@ -0,0 +1,207 @@
+package prob.lems;
+
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * {@code flatMap} for mappers that return an {@link Optional}, behind the {@code flatMapOptional} extension methods.<br>
+ * <br>
+ * {@code stream.flatMap(el -> mapper.apply(el).stream())} creates a stream per element just to unwrap the Optional.
+ * Here the Optionals are unwrapped directly by a spliterator around the source, without any intermediate stream or spliterator.
+ * Java 8 has no {@code mapMulti}, so this is the closest to a single pipeline stage:
+ * {@code forEach}, {@code collect} and friends push the elements straight through, splitting for parallel streams is left to the source.
+ */
+public final class OptionalFlatMaps {
+
+    private OptionalFlatMaps() {
+    }
+
+    public static <T, R> Stream<R> flatMapOptional(Stream<T> stream, Function<? super T, ? extends Optional<? extends R>> mapper) {
+        return StreamSupport.stream(new RefSpliterator<T, R>(stream.spliterator(), mapper), stream.isParallel()).onClose(stream::close);
+    }
+
+    public static <T> IntStream flatMapOptionalInt(Stream<T> stream, Function<? super T, OptionalInt> mapper) {
+        return StreamSupport.intStream(new IntSpliterator<T>(stream.spliterator(), mapper), stream.isParallel()).onClose(stream::close);
+    }
+
+    public static <T> LongStream flatMapOptionalLong(Stream<T> stream, Function<? super T, OptionalLong> mapper) {
+        return StreamSupport.longStream(new LongSpliterator<T>(stream.spliterator(), mapper), stream.isParallel()).onClose(stream::close);
+    }
+
+    /** the mapped elements keep the order of the source, and they are never {@code null}, as they came out of an Optional */
+    private static int characteristics(Spliterator<?> source) {
+        return (source.characteristics() & Spliterator.ORDERED) | Spliterator.NONNULL;
+    }
+
+    static final class RefSpliterator<T, R> implements Spliterator<R>, Consumer<T> {
+
+        private final Spliterator<T> source;
+        private final Function<? super T, ? extends Optional<? extends R>> mapper;
+
+        // the value of the last element passed to accept(), if it was present
+        private R current;
+        private boolean present;
+
+        RefSpliterator(Spliterator<T> source, Function<? super T, ? extends Optional<? extends R>> mapper) {
+            this.source = source;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public void accept(T element) {
+            Optional<? extends R> mapped = mapper.apply(element);
+            present = mapped.isPresent();
+            current = present ? mapped.get() : null;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super R> action) {
+            while (source.tryAdvance(this)) {
+                if (present) {
+                    R value = current;
+                    current = null;
+                    action.accept(value);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super R> action) {
+            source.forEachRemaining(element -> mapper.apply(element).ifPresent(action));
+        }
+
+        @Override
+        public Spliterator<R> trySplit() {
+            Spliterator<T> prefix = source.trySplit();
+            return prefix != null ? new RefSpliterator<T, R>(prefix, mapper) : null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return OptionalFlatMaps.characteristics(source);
+        }
+    }
+
+    static final class IntSpliterator<T> implements Spliterator.OfInt, Consumer<T> {
+
+        private final Spliterator<T> source;
+        private final Function<? super T, OptionalInt> mapper;
+
+        private int current;
+        private boolean present;
+
+        IntSpliterator(Spliterator<T> source, Function<? super T, OptionalInt> mapper) {
+            this.source = source;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public void accept(T element) {
+            OptionalInt mapped = mapper.apply(element);
+            present = mapped.isPresent();
+            current = present ? mapped.getAsInt() : 0;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            while (source.tryAdvance(this)) {
+                if (present) {
+                    action.accept(current);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            source.forEachRemaining(element -> mapper.apply(element).ifPresent(action));
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            Spliterator<T> prefix = source.trySplit();
+            return prefix != null ? new IntSpliterator<T>(prefix, mapper) : null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return OptionalFlatMaps.characteristics(source);
+        }
+    }
+
+    static final class LongSpliterator<T> implements Spliterator.OfLong, Consumer<T> {
+
+        private final Spliterator<T> source;
+        private final Function<? super T, OptionalLong> mapper;
+
+        private long current;
+        private boolean present;
+
+        LongSpliterator(Spliterator<T> source, Function<? super T, OptionalLong> mapper) {
+            this.source = source;
+            this.mapper = mapper;
+        }
+
+        @Override
+        public void accept(T element) {
+            OptionalLong mapped = mapper.apply(element);
+            present = mapped.isPresent();
+            current = present ? mapped.getAsLong() : 0;
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            while (source.tryAdvance(this)) {
+                if (present) {
+                    action.accept(current);
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            source.forEachRemaining(element -> mapper.apply(element).ifPresent(action));
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            Spliterator<T> prefix = source.trySplit();
+            return prefix != null ? new LongSpliterator<T>(prefix, mapper) : null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return source.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return OptionalFlatMaps.characteristics(source);
+        }
+    }
+}
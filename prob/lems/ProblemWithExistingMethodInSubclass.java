@@ -3,6 +3,7 @@ package prob.lems;
 import java.util.List;
 import java.util.function.BiPredicate;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -25,6 +26,28 @@ public class ProblemWithExistingMethodInSubclass {
         public static <T> T or(T object, T ifNull) {
             return object != null ? object : ifNull;
         }
+
+        // lazy and non-boxing variants of or(), see Defaults
+
+        public static <T> T orGet(T object, Supplier<? extends T> ifNull) {
+            return Defaults.orGet(object, ifNull);
+        }
+
+        public static int orInt(Integer object, int ifNull) {
+            return Defaults.orInt(object, ifNull);
+        }
+
+        public static long orLong(Long object, long ifNull) {
+            return Defaults.orLong(object, ifNull);
+        }
+
+        public static double orDouble(Double object, double ifNull) {
+            return Defaults.orDouble(object, ifNull);
+        }
+
+        public static <T> T orCached(T object, Defaults.Cached<? extends T> ifNull) {
+            return Defaults.orCached(object, ifNull);
+        }
     }
 
     /** some class that existed already in our code base */
@@ -52,7 +75,7 @@ public class ProblemWithExistingMethodInSubclass {
     public static class FailureCase {
         public static void doit() {
             Qualifier<Qualifier> qual = new Qualifier<>();
-            Object result = qual.or(q -> true);
+            Object result = qual.or(q -> true); // expect-error: incompatible types: cannot infer type-variable(s) T
             //                   ^^
             // fails, because we also declared or() as an extension method 
             System.out.println(result);
@@ -1,5 +1,7 @@
 package prob.lems;
 
+import java.util.List;
+
 import lombok.val;
 import lombok.experimental.ExtensionMethod;
 
@@ -9,13 +11,22 @@ import lombok.experimental.ExtensionMethod;
 public class ProblemWithInterfaces {
 
     public static class Extensions {
+        /** see {@link TitleCase} */
         public static String toTitleCase(String that) {
-            return "Hallo"; // some irrelevant implementation
+            return TitleCase.toTitleCase(that);
+        }
+
+        public static String[] toTitleCase(CharSequence[] that) {
+            return TitleCase.toTitleCase(that);
+        }
+
+        public static List<String> toTitleCase(List<String> that) {
+            return TitleCase.toTitleCase(that);
         }
     }
 
     // an interface - this will fail
-    @ExtensionMethod(ProblemWithInterfaces.Extensions.class)
+    @ExtensionMethod(ProblemWithInterfaces.Extensions.class) // expect-error(1.18.24): @ExtensionMethod can only be used on a class or an enum
     public static interface GreeterAsInterface {
         public default void greetings() {
             System.out.println("hallo".toTitleCase());
@@ -1,5 +1,7 @@
 package prob.lems;
 
+import java.util.List;
+
 import lombok.val;
 import lombok.experimental.ExtensionMethod;
 
@@ -14,8 +16,17 @@ import lombok.experimental.ExtensionMethod;
 public class ProblemWithJavacButNotEclipse {
 
     public static class Extensions {
+        /** see {@link TitleCase} */
         public static String toTitleCase(String that) {
-            return "Hallo"; // some irrelevant implementation
+            return TitleCase.toTitleCase(that);
+        }
+
+        public static String[] toTitleCase(CharSequence[] that) {
+            return TitleCase.toTitleCase(that);
+        }
+
+        public static List<String> toTitleCase(List<String> that) {
+            return TitleCase.toTitleCase(that);
         }
     }
 
@@ -25,7 +36,7 @@ public class ProblemWithJavacButNotEclipse {
         System.out.println(s1);
 
         // this fails with:
-        // prob/lems/ProblemWithJavacButNotEclipse.java:30: error: Cannot use 'val' here because initializer expression does not have a representable type: Type cannot be resolved
+        // prob/lems/ProblemWithJavacButNotEclipse.java:41: error: Cannot use 'val' here because initializer expression does not have a representable type: Type cannot be resolved
         // when compiling with javac (run "make" to see the error)
         val s2 = "hallo".toTitleCase();
         System.out.println(s2);
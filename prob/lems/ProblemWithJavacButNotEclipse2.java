@@ -24,7 +24,7 @@ public class ProblemWithJavacButNotEclipse2 {
     public void doSomething() {
 
         // This fails with: error: cannot find symbol
-        this.hello();
+        this.hello(); // expect-error: cannot find symbol
         //  ^
         //  symbol: method hello()
         // 1 error
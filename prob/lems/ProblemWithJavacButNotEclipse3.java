@@ -4,8 +4,15 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.OptionalLong;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import lombok.experimental.ExtensionMethod;
@@ -32,10 +39,71 @@ public class ProblemWithJavacButNotEclipse3 {
         }
 
         /**
-         * I need another extension method, as the error only manifests inside of a Lambda expression that is passed to an extensions method.
+         * Same as {@code flatMap(el -> mapper.apply(el).stream())}, but without creating a stream per element, see {@link OptionalFlatMaps}.
+         */
+        public static <T, R> Stream<R> flatMapOptional(Stream<T> that, Function<? super T, ? extends Optional<? extends R>> mapper) {
+            return OptionalFlatMaps.flatMapOptional(that, mapper);
+        }
+
+        /** Same as {@code flatMapToInt(el -> mapper.apply(el).stream())}, but without creating a stream per element, see {@link OptionalFlatMaps}. */
+        public static <T> IntStream flatMapOptionalInt(Stream<T> that, Function<? super T, OptionalInt> mapper) {
+            return OptionalFlatMaps.flatMapOptionalInt(that, mapper);
+        }
+
+        /** Same as {@code flatMapToLong(el -> mapper.apply(el).stream())}, but without creating a stream per element, see {@link OptionalFlatMaps}. */
+        public static <T> LongStream flatMapOptionalLong(Stream<T> that, Function<? super T, OptionalLong> mapper) {
+            return OptionalFlatMaps.flatMapOptionalLong(that, mapper);
+        }
+
+        /**
+         * I need another extension method, as the error only manifests inside of a Lambda expression that is passed to an extensions method.<br>
+         * Walks the tree in pre-order with an explicit work stack, see {@link TreeSpliterators.PreOrder}.
          */
         public static <T> Stream<T> flattenTree(Stream<? extends T> stream, Function<? super T, ? extends Stream<? extends T>> childGetter) {
-            return stream.flatMap(el -> Stream.concat(Stream.of(el), flattenTree(childGetter.apply(el), childGetter)));
+            return TreeSpliterators.preOrder(stream, childGetter);
+        }
+
+        /**
+         * Parallel variant of {@link #flattenTree(Stream, Function)} for trees whose children are lists, eg. {@link Person#kids()}.
+         * Splits by sibling ranges and by subtrees, see {@link TreeSpliterators.PreOrderList}.
+         */
+        public static <T> Stream<T> parallelFlattenTree(List<? extends T> roots, Function<? super T, ? extends List<? extends T>> childGetter) {
+            return TreeSpliterators.parallelPreOrder(roots, childGetter, null);
+        }
+
+        /**
+         * Same as {@link #parallelFlattenTree(List, Function)}, but {@code SIZED}, as {@code subtreeSize} knows the node count of every subtree.
+         */
+        public static <T> Stream<T> parallelFlattenTree(List<? extends T> roots, Function<? super T, ? extends List<? extends T>> childGetter,
+                ToLongFunction<? super T> subtreeSize) {
+            return TreeSpliterators.parallelPreOrder(roots, childGetter, subtreeSize);
+        }
+
+        /**
+         * Variant of {@link #flattenTree(Stream, Function)} for a slow {@code childGetter}, eg. a remote lookup behind {@link Person#kids()}.
+         * Fetches the children of upcoming nodes on {@code executor}, see {@link TreeSpliterators.PrefetchingPreOrder}.
+         */
+        public static <T> Stream<T> asyncFlattenTree(List<? extends T> roots, Function<? super T, ? extends List<? extends T>> childGetter,
+                Executor executor, int prefetch, int maxInFlight) {
+            return TreeSpliterators.prefetchingPreOrder(roots, childGetter, executor, prefetch, maxInFlight);
+        }
+
+        /**
+         * Same as {@code collect(Collectors.toList())} on a flattened tree, but into a single array of {@code nodeCount} elements,
+         * eg. from {@link TreeIndex#subtreeSize(int)}, instead of growing a list copy by copy, see {@link TreeCollectors#toList(long)}.
+         */
+        public static <T> List<T> toTreeList(Stream<T> stream, long nodeCount) {
+            return TreeCollectors.toTreeList(stream, nodeCount);
+        }
+
+        /** for a flattened tree of unknown size, eg. from {@link #parallelFlattenTree(List, Function)}, see {@link TreeCollectors#toChunkedList()} */
+        public static <T> List<T> toChunkedList(Stream<T> stream) {
+            return stream.collect(TreeCollectors.toChunkedList());
+        }
+
+        /** hands the nodes to {@code consumer} in batches of {@code chunkSize}, without collecting the tree, see {@link TreeCollectors#forEachChunk} */
+        public static <T> long forEachChunk(Stream<T> stream, int chunkSize, Consumer<? super List<T>> consumer) {
+            return TreeCollectors.forEachChunk(stream, chunkSize, consumer);
         }
     }
 
@@ -51,8 +119,8 @@ public class ProblemWithJavacButNotEclipse3 {
         // but Lombok confuses it with the completely unrelated Optional.stream() extension method defined above.
 
 //      This fails with:
-//      prob/lems/ProblemWithJavacButNotEclipse3.java:55: error: method stream in class Extensions cannot be applied to given types;
-        list.stream().flattenTree(p -> p.kids().stream()).collect(Collectors.toList());
+//      prob/lems/ProblemWithJavacButNotEclipse3.java:123: error: method stream in class Extensions cannot be applied to given types;
+        list.stream().flattenTree(p -> p.kids().stream()).collect(Collectors.toList()); // expect-error: method stream in class Extensions cannot be applied to given types
 //                                                    ^
 //      required: Optional<T>
 //      found: List<Person>
@@ -63,8 +131,8 @@ public class ProblemWithJavacButNotEclipse3 {
 
         // not using the outer .stream() doesn't help:
 
-//      prob/lems/ProblemWithJavacButNotEclipse3.java:67: error: method stream in class Extensions cannot be applied to given types;
-        Stream.<Person>empty().flattenTree(p -> p.kids().stream()).collect(Collectors.toList());
+//      prob/lems/ProblemWithJavacButNotEclipse3.java:135: error: method stream in class Extensions cannot be applied to given types;
+        Stream.<Person>empty().flattenTree(p -> p.kids().stream()).collect(Collectors.toList()); // expect-error: method stream in class Extensions cannot be applied to given types
 //                                                             ^
 //      required: Optional<T>
 //      found: List<Person>
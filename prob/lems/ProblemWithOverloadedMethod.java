@@ -4,6 +4,8 @@ import java.util.List;
 import java.util.function.BiPredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import lombok.experimental.ExtensionMethod;
@@ -21,8 +23,21 @@ public class ProblemWithOverloadedMethod {
 
     // method with different signature
     public static class Extensions1 {
+        /** keeps the elements for which {@code predicate} holds, it also gets the index of each element, see {@link IndexedFilters} */
         public static <T> Stream<T> filter(Stream<T> that, BiPredicate<? super T, Integer> predicate) {
-            return that; // some irrelevant implementation
+            return IndexedFilters.filter(that, predicate);
+        }
+
+        // the primitive variants are not called "filter", as every additional overload changes the errors shown below
+
+        /** same for an {@code IntStream}, without boxing the value or the index */
+        public static IntStream filterIndexed(IntStream that, IndexedFilters.IndexedIntPredicate predicate) {
+            return IndexedFilters.filter(that, predicate);
+        }
+
+        /** same for a {@code LongStream}, without boxing the value or the index */
+        public static LongStream filterIndexed(LongStream that, IndexedFilters.IndexedLongPredicate predicate) {
+            return IndexedFilters.filter(that, predicate);
         }
     }
 
@@ -31,6 +46,11 @@ public class ProblemWithOverloadedMethod {
         public static <T> Stream<T> filter(Stream<T> that, Predicate<? super T> predicate) {
             return that.filter(predicate);
         }
+
+        /** starts a chain of filters, that are applied as a single stage, see {@link FilterChain} */
+        public static <T> FilterChain<T> filters(Stream<T> that) {
+            return FilterChain.of(that);
+        }
     }
 
     // --- the following three classes are all identical, except they include different extension methods
@@ -54,7 +74,7 @@ public class ProblemWithOverloadedMethod {
     @ExtensionMethod(ProblemWithOverloadedMethod.Extensions1.class)
     public static class FailCase1 {
         public static void doit() {
-            List<String> list = Stream.of("a", "b", "c").filter(s -> {
+            List<String> list = Stream.of("a", "b", "c").filter(s -> { // expect-error: incompatible types: incompatible parameter types in lambda expression
                 //                                       ^^^^^^
                 // fails, because we declared filter with a different parameter type
                 String a = "";
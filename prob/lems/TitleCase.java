@@ -0,0 +1,144 @@
+package prob.lems;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The {@code toTitleCase} extension methods: the first character of every word is converted to title case,
+ * all others to lower case. Words are separated by {@link Character#isWhitespace whitespace}.<br>
+ * <br>
+ * Latin-1 characters, which is almost all of our input, are converted with lookup tables on the raw chars.
+ * Everything else goes through {@link Character#toTitleCase(int)} and {@link Character#toLowerCase(int)} per code point.
+ * Nothing is allocated until the first character that actually changes, so an input that is already
+ * in title case is returned as it is. The bulk variants share one scratch buffer for all their inputs.
+ */
+public final class TitleCase {
+
+    // marks a Latin-1 character whose conversion is not in Latin-1, eg. y with diaeresis, those take the slow path
+    private static final char NOT_LATIN1 = '\uFFFF';
+
+    private static final char[] TITLE = new char[256];
+    private static final char[] LOWER = new char[256];
+    private static final boolean[] WHITESPACE = new boolean[256];
+
+    static {
+        for (char c = 0; c < 256; c++) {
+            char title = Character.toTitleCase(c);
+            char lower = Character.toLowerCase(c);
+            TITLE[c] = title < 256 ? title : NOT_LATIN1;
+            LOWER[c] = lower < 256 ? lower : NOT_LATIN1;
+            WHITESPACE[c] = Character.isWhitespace(c);
+        }
+    }
+
+    private TitleCase() {
+    }
+
+    public static String toTitleCase(String text) {
+        return convert(text, null);
+    }
+
+    public static String[] toTitleCase(CharSequence[] texts) {
+        Scratch scratch = new Scratch();
+        String[] result = new String[texts.length];
+        for (int i = 0; i < texts.length; i++) {
+            result[i] = texts[i] != null ? convert(texts[i], scratch) : null;
+        }
+        return result;
+    }
+
+    public static List<String> toTitleCase(List<String> texts) {
+        Scratch scratch = new Scratch();
+        List<String> result = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            result.add(text != null ? convert(text, scratch) : null);
+        }
+        return result;
+    }
+
+    /** an output buffer, that is reused for all elements of a bulk conversion */
+    private static final class Scratch {
+        char[] chars = new char[64];
+    }
+
+    private static String convert(CharSequence text, Scratch scratch) {
+        int length = text.length();
+        char[] out = null;
+        int o = 0;
+        boolean wordStart = true;
+        int i = 0;
+        while (i < length) {
+            char c = text.charAt(i);
+            char latin1 = c < 256 ? (wordStart ? TITLE : LOWER)[c] : NOT_LATIN1;
+            if (latin1 != NOT_LATIN1) {
+                wordStart = WHITESPACE[c];
+                if (out == null) {
+                    if (latin1 == c) {
+                        i++;
+                        continue;
+                    }
+                    out = start(text, i, scratch);
+                    o = i;
+                }
+                if (o == out.length) {
+                    out = grow(out, scratch);
+                }
+                out[o++] = latin1;
+                i++;
+            } else {
+                int codePoint = Character.codePointAt(text, i);
+                int converted = wordStart ? Character.toTitleCase(codePoint) : Character.toLowerCase(codePoint);
+                wordStart = Character.isWhitespace(codePoint);
+                if (out == null) {
+                    if (converted == codePoint) {
+                        i += Character.charCount(codePoint);
+                        continue;
+                    }
+                    out = start(text, i, scratch);
+                    o = i;
+                }
+                // the converted code point may need more chars than the original one
+                if (o + 2 > out.length) {
+                    out = grow(out, scratch);
+                }
+                o += Character.toChars(converted, out, o);
+                i += Character.charCount(codePoint);
+            }
+        }
+        if (out == null) {
+            return text.toString(); // a no-op for a String
+        }
+        return new String(out, 0, o);
+    }
+
+    private static char[] grow(char[] out, Scratch scratch) {
+        char[] grown = Arrays.copyOf(out, out.length * 2);
+        if (scratch != null) {
+            scratch.chars = grown;
+        }
+        return grown;
+    }
+
+    /** the output buffer, with room for the whole text, and the unchanged prefix of the text already copied into it */
+    private static char[] start(CharSequence text, int prefix, Scratch scratch) {
+        int capacity = text.length() + 16;
+        char[] out;
+        if (scratch == null) {
+            out = new char[capacity];
+        } else {
+            if (scratch.chars.length < capacity) {
+                scratch.chars = new char[Math.max(capacity, scratch.chars.length * 2)];
+            }
+            out = scratch.chars;
+        }
+        if (text instanceof String) {
+            ((String) text).getChars(0, prefix, out, 0);
+        } else {
+            for (int i = 0; i < prefix; i++) {
+                out[i] = text.charAt(i);
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,246 @@
+package prob.lems;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+/**
+ * Terminal operations for flattened trees, behind the {@code toTreeList}, {@code toChunkedList} and {@code forEachChunk} extension methods.<br>
+ * <br>
+ * {@code Collectors.toList()} grows an {@code ArrayList} by half its size whenever it is full, so a tree of millions of nodes is copied
+ * about 30 times on the way, and the last copies are huge arrays that die right away. In a parallel stream, every part collects into
+ * its own list and the lists are copied into each other on every combine.
+ * The lists here are made of chunks instead: a chunk is never copied, it is filled and then linked, also when two parts are combined.
+ * If the number of nodes is known up front, eg. from {@link TreeIndex#subtreeSize(int)}, the first chunk takes all of them.
+ */
+public final class TreeCollectors {
+
+    /** the first chunk of a list of unknown size */
+    private static final int FIRST_CHUNK = 64;
+    /** 64 KB with compressed references, so no chunk is a humongous object for G1 */
+    private static final int MAX_CHUNK = 16 * 1024;
+
+    private TreeCollectors() {
+    }
+
+    /**
+     * Collects into one array of {@code expectedSize} elements, the list only grows by another chunk if there are more.
+     * For sequential streams, in a parallel stream every part would reserve {@code expectedSize} elements, see {@link #toChunkedList()}.
+     * The list is unmodifiable, and so are those of the other collectors here.
+     */
+    public static <T> Collector<T, ?, List<T>> toList(long expectedSize) {
+        if (expectedSize < 0) {
+            throw new IllegalArgumentException("expectedSize " + expectedSize + " < 0");
+        }
+        int firstChunk = (int) Math.min(Math.max(expectedSize, 1), Integer.MAX_VALUE - 8);
+        return Collector.of(() -> new ChunkedList<T>(firstChunk), ChunkedList::add, ChunkedList::append, Collections::unmodifiableList);
+    }
+
+    /** collects into chunks of up to {@value #MAX_CHUNK} elements, the parts of a parallel stream are linked, not copied */
+    public static <T> Collector<T, ?, List<T>> toChunkedList() {
+        return Collector.of(() -> new ChunkedList<T>(FIRST_CHUNK), ChunkedList::add, ChunkedList::append, Collections::unmodifiableList);
+    }
+
+    /** {@link #toList(long)} for a sequential stream, {@link #toChunkedList()} for a parallel one */
+    public static <T> List<T> toTreeList(Stream<T> stream, long nodeCount) {
+        Collector<T, ?, List<T>> collector = stream.isParallel() ? toChunkedList() : toList(nodeCount);
+        return stream.collect(collector);
+    }
+
+    /**
+     * Hands the elements to {@code consumer} in lists of {@code chunkSize} elements, in encounter order, the last one may be shorter.
+     * The tree is only walked as far as the consumer got, so a slow consumer slows the walk down instead of piling up nodes.
+     * All chunks are the same list, which is only valid during the call, copy it to keep it. Returns the number of elements.
+     */
+    public static <T> long forEachChunk(Stream<T> stream, int chunkSize, Consumer<? super List<T>> consumer) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize " + chunkSize + " <= 0");
+        }
+        Chunk<T> chunk = new Chunk<>(chunkSize, consumer);
+        stream.sequential().forEach(chunk);
+        chunk.flush();
+        return chunk.total;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " not in list of size " + size);
+        }
+    }
+
+    /** a reused buffer of {@link #forEachChunk}, it collects elements and passes them on when full */
+    static final class Chunk<T> extends AbstractList<T> implements RandomAccess, Consumer<T> {
+        private final Object[] elements;
+        private final Consumer<? super List<T>> consumer;
+        private int size;
+        long total;
+
+        Chunk(int chunkSize, Consumer<? super List<T>> consumer) {
+            this.elements = new Object[chunkSize];
+            this.consumer = Objects.requireNonNull(consumer);
+        }
+
+        @Override
+        public void accept(T element) {
+            elements[size++] = element;
+            if (size == elements.length) {
+                flush();
+            }
+        }
+
+        void flush() {
+            if (size > 0) {
+                consumer.accept(this);
+                total += size;
+                Arrays.fill(elements, 0, size, null);
+                size = 0;
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            checkIndex(index, size);
+            return (T) elements[index];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * A list of chunks, that grows by adding a chunk, and is appended to by linking the chunks of the other list.
+     * {@link #get(int)} finds the chunk by a binary search over the start index of each chunk, iteration walks the chunks.
+     */
+    static final class ChunkedList<T> extends AbstractList<T> implements RandomAccess {
+        private Object[][] chunks = new Object[4][];
+        // index of the first element of each chunk, and how many elements each chunk holds
+        private int[] starts = new int[4];
+        private int[] counts = new int[4];
+        private int chunkCount;
+        private int size;
+
+        ChunkedList(int firstChunk) {
+            newChunk(new Object[firstChunk], 0);
+        }
+
+        @Override
+        public boolean add(T element) {
+            int last = chunkCount - 1;
+            Object[] chunk = chunks[last];
+            if (counts[last] == chunk.length) {
+                if (size == Integer.MAX_VALUE - 8) {
+                    throw new OutOfMemoryError("more than " + size + " elements");
+                }
+                // grows by half of what it has, like an ArrayList, but without copying
+                chunk = new Object[Math.min(Math.max(size / 2, FIRST_CHUNK), Math.min(MAX_CHUNK, Integer.MAX_VALUE - 8 - size))];
+                newChunk(chunk, 0);
+                last++;
+            }
+            chunk[counts[last]++] = element;
+            size++;
+            modCount++;
+            return true;
+        }
+
+        /** links the chunks of {@code other} after the ones of this list, the partly filled chunks stay as they are */
+        ChunkedList<T> append(ChunkedList<T> other) {
+            if (other.size == 0) {
+                return this;
+            }
+            if (size == 0) {
+                return other;
+            }
+            if ((long) size + other.size > Integer.MAX_VALUE - 8) {
+                throw new OutOfMemoryError("more than " + (Integer.MAX_VALUE - 8) + " elements");
+            }
+            int offset = size;
+            for (int i = 0; i < other.chunkCount; i++) {
+                if (other.counts[i] > 0) {
+                    newChunk(other.chunks[i], other.counts[i]);
+                    starts[chunkCount - 1] = offset + other.starts[i];
+                }
+            }
+            size += other.size;
+            modCount++;
+            return this;
+        }
+
+        private void newChunk(Object[] chunk, int count) {
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+                starts = Arrays.copyOf(starts, chunkCount * 2);
+                counts = Arrays.copyOf(counts, chunkCount * 2);
+            }
+            chunks[chunkCount] = chunk;
+            starts[chunkCount] = size;
+            counts[chunkCount++] = count;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            checkIndex(index, size);
+            if (chunkCount == 1) {
+                return (T) chunks[0][index];
+            }
+            int chunk = Arrays.binarySearch(starts, 0, chunkCount, index);
+            if (chunk < 0) {
+                chunk = -chunk - 2;
+            }
+            return (T) chunks[chunk][index - starts[chunk]];
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void forEach(Consumer<? super T> action) {
+            for (int i = 0; i < chunkCount; i++) {
+                Object[] chunk = chunks[i];
+                for (int j = 0, count = counts[i]; j < count; j++) {
+                    action.accept((T) chunk[j]);
+                }
+            }
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return new Iterator<T>() {
+                private int chunk;
+                private int index;
+
+                @Override
+                public boolean hasNext() {
+                    while (chunk < chunkCount && index == counts[chunk]) {
+                        chunk++;
+                        index = 0;
+                    }
+                    return chunk < chunkCount;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public T next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return (T) chunks[chunk][index++];
+                }
+            };
+        }
+    }
+}
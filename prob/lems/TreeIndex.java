@@ -0,0 +1,237 @@
+package prob.lems;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A flat, array based index of a tree, eg. a {@code Person} hierarchy.<br>
+ * <br>
+ * Nodes are numbered in pre-order, so the subtree of node {@code id} is the contiguous range
+ * {@code [id, id + subtreeSize(id))}. Subtree sizes, parents and depths live in {@code int[]}s next to the nodes,
+ * which turns flattening, subtree and ancestor queries into array slices or O(1) lookups,
+ * without calling the child getter or allocating anything per node.<br>
+ * <br>
+ * After the children of a node changed, {@link #rebuild(int)} re-indexes only the subtree of that node.
+ * Instances are not thread-safe, rebuilding while another thread reads the index is not allowed.
+ */
+public final class TreeIndex<T> {
+
+    private final Function<? super T, ? extends Collection<? extends T>> childGetter;
+
+    // struct-of-arrays, all indexed by the pre-order id of a node
+    private Object[] nodes;
+    private int[] subtreeSize;
+    private int[] parent;
+    private int[] depth;
+    private int size;
+
+    private TreeIndex(Function<? super T, ? extends Collection<? extends T>> childGetter, Builder built) {
+        this.childGetter = childGetter;
+        this.nodes = built.nodes;
+        this.subtreeSize = built.subtreeSize;
+        this.parent = built.parent;
+        this.depth = built.depth;
+        this.size = built.size;
+    }
+
+    /** indexes the tree below {@code root}, {@code null} children are treated as "no children" */
+    public static <T> TreeIndex<T> of(T root, Function<? super T, ? extends Collection<? extends T>> childGetter) {
+        return new TreeIndex<>(childGetter, new Builder().walk(root, childGetter, -1, 0));
+    }
+
+    /** number of nodes in the tree */
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T node(int id) {
+        return (T) nodes[checkId(id)];
+    }
+
+    /** the pre-order id of {@code node}, or -1 if it is not part of the tree (a linear scan, comparing by identity) */
+    public int idOf(Object node) {
+        for (int id = 0; id < size; id++) {
+            if (nodes[id] == node) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /** number of nodes in the subtree of {@code id}, including {@code id} itself */
+    public int subtreeSize(int id) {
+        return subtreeSize[checkId(id)];
+    }
+
+    /** id of the parent of {@code id}, or -1 for the root */
+    public int parent(int id) {
+        return parent[checkId(id)];
+    }
+
+    /** distance to the root, the root has depth 0 */
+    public int depth(int id) {
+        return depth[checkId(id)];
+    }
+
+    /** id of the first child of {@code id}, or -1 if it is a leaf */
+    public int firstChild(int id) {
+        return subtreeSize[checkId(id)] > 1 ? id + 1 : -1;
+    }
+
+    /** id of the next sibling of {@code id}, or -1 if it is the last child of its parent */
+    public int nextSibling(int id) {
+        int p = parent[checkId(id)];
+        int next = id + subtreeSize[id];
+        return p >= 0 && next < p + subtreeSize[p] ? next : -1;
+    }
+
+    /** whether {@code descendant} is part of the subtree of {@code ancestor} (a node is its own ancestor) */
+    public boolean isAncestor(int ancestor, int descendant) {
+        checkId(descendant);
+        return ancestor <= descendant && descendant < ancestor + subtreeSize[checkId(ancestor)];
+    }
+
+    /** ids of the children of {@code id}, in order */
+    public IntStream children(int id) {
+        int first = firstChild(id);
+        if (first < 0) {
+            return IntStream.empty();
+        }
+        int end = id + subtreeSize[id];
+        IntStream.Builder children = IntStream.builder();
+        for (int child = first; child < end; child += subtreeSize[child]) {
+            children.add(child);
+        }
+        return children.build();
+    }
+
+    /** all nodes in pre-order, the same order as {@code flattenTree} */
+    public Stream<T> stream() {
+        return subtree(0);
+    }
+
+    /** the nodes of the subtree of {@code id} in pre-order, a {@code SIZED} slice that splits evenly in parallel streams */
+    public Stream<T> subtree(int id) {
+        @SuppressWarnings("unchecked")
+        Spliterator<T> slice = (Spliterator<T>) Spliterators.spliterator(nodes, checkId(id), id + subtreeSize[id], Spliterator.ORDERED);
+        return StreamSupport.stream(slice, false);
+    }
+
+    /**
+     * Re-indexes the subtree of {@code id}, after nodes were added to or removed from it.
+     * Ids of nodes after that subtree shift by the change in its size, ids before it stay the same.
+     */
+    public void rebuild(int id) {
+        int oldSize = subtreeSize[checkId(id)];
+        Builder built = new Builder().walk(node(id), childGetter, parent[id], depth[id]);
+        int delta = built.size - oldSize;
+        int tail = size - (id + oldSize);
+
+        Object[] newNodes = delta == 0 ? nodes : Arrays.copyOf(nodes, size + delta);
+        int[] newSubtreeSize = delta == 0 ? subtreeSize : Arrays.copyOf(subtreeSize, size + delta);
+        int[] newParent = delta == 0 ? parent : Arrays.copyOf(parent, size + delta);
+        int[] newDepth = delta == 0 ? depth : Arrays.copyOf(depth, size + delta);
+
+        // the nodes after the subtree move by delta, and so do their parents, unless those are before the subtree
+        System.arraycopy(nodes, id + oldSize, newNodes, id + built.size, tail);
+        System.arraycopy(subtreeSize, id + oldSize, newSubtreeSize, id + built.size, tail);
+        System.arraycopy(parent, id + oldSize, newParent, id + built.size, tail);
+        System.arraycopy(depth, id + oldSize, newDepth, id + built.size, tail);
+        if (delta != 0) {
+            for (int i = id + built.size; i < size + delta; i++) {
+                if (newParent[i] >= id + oldSize) {
+                    newParent[i] += delta;
+                }
+            }
+        }
+
+        // the new subtree, its ids were assigned starting at 0
+        System.arraycopy(built.nodes, 0, newNodes, id, built.size);
+        System.arraycopy(built.subtreeSize, 0, newSubtreeSize, id, built.size);
+        System.arraycopy(built.depth, 0, newDepth, id, built.size);
+        newParent[id] = built.parent[0];
+        for (int i = 1; i < built.size; i++) {
+            newParent[id + i] = built.parent[i] + id;
+        }
+
+        for (int p = newParent[id]; p >= 0; p = newParent[p]) {
+            newSubtreeSize[p] += delta;
+        }
+
+        nodes = newNodes;
+        subtreeSize = newSubtreeSize;
+        parent = newParent;
+        depth = newDepth;
+        size += delta;
+    }
+
+    private int checkId(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("id " + id + " not in tree of size " + size);
+        }
+        return id;
+    }
+
+    /** walks a tree in pre-order without recursion and fills the arrays, ids start at 0, only the root gets a parent outside of the walk */
+    private static final class Builder {
+        Object[] nodes = new Object[64];
+        int[] subtreeSize = new int[64];
+        int[] parent = new int[64];
+        int[] depth = new int[64];
+        int size;
+
+        <T> Builder walk(T root, Function<? super T, ? extends Collection<? extends T>> childGetter, int rootParent, int rootDepth) {
+            int[] ids = new int[16];
+            Iterator<?>[] children = new Iterator<?>[16];
+            int sp = 0;
+
+            ids[sp] = add(root, rootParent, rootDepth);
+            children[sp++] = iterator(childGetter.apply(root));
+            while (sp > 0) {
+                @SuppressWarnings("unchecked")
+                Iterator<? extends T> top = (Iterator<? extends T>) children[sp - 1];
+                if (top.hasNext()) {
+                    T child = top.next();
+                    int id = add(child, ids[sp - 1], depth[ids[sp - 1]] + 1);
+                    if (sp == ids.length) {
+                        ids = Arrays.copyOf(ids, sp * 2);
+                        children = Arrays.copyOf(children, sp * 2);
+                    }
+                    ids[sp] = id;
+                    children[sp++] = iterator(childGetter.apply(child));
+                } else {
+                    int id = ids[--sp];
+                    children[sp] = null;
+                    subtreeSize[id] = size - id;
+                }
+            }
+            return this;
+        }
+
+        private int add(Object node, int parentId, int nodeDepth) {
+            if (size == nodes.length) {
+                nodes = Arrays.copyOf(nodes, size * 2);
+                subtreeSize = Arrays.copyOf(subtreeSize, size * 2);
+                parent = Arrays.copyOf(parent, size * 2);
+                depth = Arrays.copyOf(depth, size * 2);
+            }
+            nodes[size] = node;
+            parent[size] = parentId;
+            depth[size] = nodeDepth;
+            return size++;
+        }
+
+        private static Iterator<?> iterator(Collection<?> children) {
+            return children != null ? children.iterator() : Collections.emptyIterator();
+        }
+    }
+}
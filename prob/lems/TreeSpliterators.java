@@ -0,0 +1,543 @@
+package prob.lems;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spliterators behind the {@code flattenTree} extension methods.<br>
+ * <br>
+ * The naive implementation nests one {@code flatMap}/{@code concat} pipeline per tree level,
+ * which allocates several stream objects per node and overflows the stack on deep trees.
+ * The spliterators here walk the tree with an explicit work stack instead.
+ */
+public final class TreeSpliterators {
+
+    private TreeSpliterators() {
+    }
+
+    /**
+     * Flattens the trees below all elements of {@code roots} in pre-order, see {@link PreOrder}.
+     * Closing the returned stream closes {@code roots} and all child streams that are still open.
+     */
+    public static <T> Stream<T> preOrder(Stream<? extends T> roots, Function<? super T, ? extends Stream<? extends T>> childGetter) {
+        PreOrder<T> spliterator = new PreOrder<>(roots.iterator(), childGetter);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close).onClose(roots::close);
+    }
+
+    /**
+     * Flattens the trees below all elements of {@code roots} in pre-order as a parallel stream, see {@link PreOrderList}.
+     * If {@code subtreeSize} is not {@code null}, it must return the exact number of nodes in the subtree of a node (including the node itself),
+     * and the stream will be {@link Spliterator#SIZED}.
+     */
+    public static <T> Stream<T> parallelPreOrder(List<? extends T> roots, Function<? super T, ? extends List<? extends T>> childGetter,
+            ToLongFunction<? super T> subtreeSize) {
+        return StreamSupport.stream(new PreOrderList<T>(roots, childGetter, subtreeSize), true);
+    }
+
+    /**
+     * Flattens the trees below all elements of {@code roots} in pre-order, fetching children ahead of time on {@code executor},
+     * see {@link PrefetchingPreOrder}. Closing the returned stream cancels all outstanding fetches, see {@link PrefetchingPreOrder#close()}.
+     */
+    public static <T> Stream<T> prefetchingPreOrder(List<? extends T> roots, Function<? super T, ? extends List<? extends T>> childGetter,
+            Executor executor, int prefetch, int maxInFlight) {
+        PrefetchingPreOrder<T> spliterator = new PrefetchingPreOrder<>(roots, childGetter, executor, prefetch, maxInFlight);
+        return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+    }
+
+    /**
+     * Sequential pre-order traversal with O(1) call stack depth.<br>
+     * <br>
+     * Each level of the tree is one slot in a growable array of iterators, so the depth of the tree
+     * only costs heap, not stack. Nodes are emitted lazily: the children of a node are only requested
+     * from the {@code childGetter} once the traversal moves past that node.
+     * A {@code null} result from the {@code childGetter} is treated as "no children".
+     */
+    public static final class PreOrder<T> implements Spliterator<T> {
+
+        private final Function<? super T, ? extends Stream<? extends T>> childGetter;
+
+        // the work stack, slot 0 holds the roots, which are not owned (and therefore not closed) by us
+        private Iterator<?>[] iterators = new Iterator<?>[16];
+        private Stream<?>[] streams = new Stream<?>[16];
+        private int depth;
+
+        // the node emitted last, its children have not been pushed yet
+        private T pending;
+        private boolean hasPending;
+
+        public PreOrder(Iterator<? extends T> roots, Function<? super T, ? extends Stream<? extends T>> childGetter) {
+            this.childGetter = childGetter;
+            iterators[depth++] = roots;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (hasPending) {
+                T node = pending;
+                pending = null;
+                hasPending = false;
+                push(childGetter.apply(node));
+            }
+            while (depth > 0) {
+                @SuppressWarnings("unchecked")
+                Iterator<? extends T> top = (Iterator<? extends T>) iterators[depth - 1];
+                if (top.hasNext()) {
+                    T node = top.next();
+                    pending = node;
+                    hasPending = true;
+                    action.accept(node);
+                    return true;
+                }
+                pop();
+            }
+            return false;
+        }
+
+        private void push(Stream<? extends T> children) {
+            if (children == null) {
+                return;
+            }
+            if (depth == iterators.length) {
+                iterators = Arrays.copyOf(iterators, depth * 2);
+                streams = Arrays.copyOf(streams, depth * 2);
+            }
+            streams[depth] = children;
+            iterators[depth++] = children.iterator();
+        }
+
+        private void pop() {
+            depth--;
+            Stream<?> stream = streams[depth];
+            iterators[depth] = null;
+            streams[depth] = null;
+            if (stream != null) {
+                stream.close();
+            }
+        }
+
+        /** closes all child streams that have not been exhausted, e.g. after a short-circuiting operation */
+        public void close() {
+            pending = null;
+            hasPending = false;
+            while (depth > 0) {
+                pop();
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED;
+        }
+    }
+
+    /**
+     * Splittable pre-order traversal over trees whose children are {@link List}s.<br>
+     * <br>
+     * The work stack holds one range of a sibling list per level. {@link #trySplit()} hands out the first half of the lowest
+     * range that still has two or more siblings left, so the halves are whole subtrees near the root, which keeps the encounter order
+     * identical to {@link PreOrder}. Once every range is down to a single node, it splits off that node from its children instead.<br>
+     * The traversal is only {@link #SIZED} when the exact size of every subtree is known up front.
+     */
+    public static final class PreOrderList<T> implements Spliterator<T> {
+
+        private final Function<? super T, ? extends List<? extends T>> childGetter;
+        private final ToLongFunction<? super T> subtreeSize;
+
+        // the work stack, slot i covers lists[i][index[i] .. fence[i]), the nodes of a leaf slot are emitted without their children
+        private List<?>[] lists;
+        private int[] index;
+        private int[] fence;
+        private boolean[] leaf;
+        private int depth;
+
+        // exact number of remaining nodes, only maintained if subtreeSize is known
+        private long size;
+
+        public PreOrderList(List<? extends T> roots, Function<? super T, ? extends List<? extends T>> childGetter, ToLongFunction<? super T> subtreeSize) {
+            this(childGetter, subtreeSize, 16);
+            push(roots, 0, roots.size(), false);
+            if (subtreeSize != null) {
+                size = sizeOf(0, 0, roots.size());
+            }
+        }
+
+        private PreOrderList(Function<? super T, ? extends List<? extends T>> childGetter, ToLongFunction<? super T> subtreeSize, int capacity) {
+            this.childGetter = childGetter;
+            this.subtreeSize = subtreeSize;
+            lists = new List<?>[capacity];
+            index = new int[capacity];
+            fence = new int[capacity];
+            leaf = new boolean[capacity];
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            while (depth > 0) {
+                int top = depth - 1;
+                if (index[top] < fence[top]) {
+                    T node = get(top, index[top]++);
+                    if (!leaf[top]) {
+                        pushChildren(node);
+                    }
+                    size--;
+                    action.accept(node);
+                    return true;
+                }
+                lists[top] = null;
+                depth--;
+            }
+            return false;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            // the lowest range with at least two siblings: split it in halves
+            for (int k = 0; k < depth; k++) {
+                int remaining = fence[k] - index[k];
+                if (remaining >= 2) {
+                    int mid = index[k] + (remaining >>> 1);
+                    PreOrderList<T> prefix = copyFrom(k);
+                    prefix.fence[0] = mid;
+                    index[k] = mid;
+                    depth = k + 1;
+                    return sized(prefix);
+                }
+            }
+            // the lowest single node that has children: split it off from its children
+            for (int k = 0; k < depth; k++) {
+                if (fence[k] - index[k] == 1 && !leaf[k]) {
+                    T node = get(k, index[k]);
+                    List<? extends T> children = childGetter.apply(node);
+                    if (children == null || children.isEmpty()) {
+                        continue;
+                    }
+                    PreOrderList<T> prefix = copyFrom(k);
+                    prefix.leaf[0] = true;
+                    index[k]++;
+                    depth = k + 1;
+                    push(children, 0, children.size(), false);
+                    return sized(prefix);
+                }
+            }
+            return null;
+        }
+
+        /** a new spliterator covering the work stack from slot {@code k} upwards */
+        private PreOrderList<T> copyFrom(int k) {
+            int n = depth - k;
+            PreOrderList<T> copy = new PreOrderList<>(childGetter, subtreeSize, Math.max(16, n));
+            System.arraycopy(lists, k, copy.lists, 0, n);
+            System.arraycopy(index, k, copy.index, 0, n);
+            System.arraycopy(fence, k, copy.fence, 0, n);
+            System.arraycopy(leaf, k, copy.leaf, 0, n);
+            copy.depth = n;
+            for (int i = k + 1; i < depth; i++) {
+                lists[i] = null;
+            }
+            return copy;
+        }
+
+        /** after a split: this keeps the suffix of the former range, the prefix gets the rest of the nodes */
+        private PreOrderList<T> sized(PreOrderList<T> prefix) {
+            if (subtreeSize != null) {
+                long suffix = 0;
+                for (int i = 0; i < depth; i++) {
+                    suffix += sizeOf(i, index[i], fence[i]);
+                }
+                prefix.size = size - suffix;
+                size = suffix;
+            }
+            return prefix;
+        }
+
+        private long sizeOf(int slot, int from, int to) {
+            if (leaf[slot]) {
+                return to - from;
+            }
+            long sum = 0;
+            for (int i = from; i < to; i++) {
+                sum += subtreeSize.applyAsLong(get(slot, i));
+            }
+            return sum;
+        }
+
+        private void pushChildren(T node) {
+            List<? extends T> children = childGetter.apply(node);
+            if (children != null && !children.isEmpty()) {
+                push(children, 0, children.size(), false);
+            }
+        }
+
+        private void push(List<? extends T> list, int from, int to, boolean leafOnly) {
+            if (depth == lists.length) {
+                lists = Arrays.copyOf(lists, depth * 2);
+                index = Arrays.copyOf(index, depth * 2);
+                fence = Arrays.copyOf(fence, depth * 2);
+                leaf = Arrays.copyOf(leaf, depth * 2);
+            }
+            // positional access has to be cheap, as splitting jumps into the middle of a sibling list
+            lists[depth] = list instanceof RandomAccess ? list : new ArrayList<>(list);
+            index[depth] = from;
+            fence[depth] = to;
+            leaf[depth] = leafOnly;
+            depth++;
+        }
+
+        @SuppressWarnings("unchecked")
+        private T get(int slot, int i) {
+            return (T) lists[slot].get(i);
+        }
+
+        @Override
+        public long estimateSize() {
+            if (subtreeSize != null) {
+                return size;
+            }
+            long estimate = 0;
+            for (int i = 0; i < depth; i++) {
+                estimate += fence[i] - index[i];
+            }
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return subtreeSize != null ? ORDERED | SIZED | SUBSIZED : ORDERED;
+        }
+    }
+
+    /**
+     * Sequential pre-order traversal for trees whose {@code childGetter} is slow, eg. a remote lookup.<br>
+     * <br>
+     * While the consumer processes a node, the children of the next {@code prefetch} nodes of the frontier
+     * (the unvisited siblings on the work stack, nearest first) are already being fetched on the {@code executor},
+     * with at most {@code maxInFlight} fetches running at the same time.
+     * On Java 21 and later, {@code Executors.newVirtualThreadPerTaskExecutor()} is the natural choice for the executor,
+     * as the fetches spend their time waiting.<br>
+     * Exceptions thrown by the {@code childGetter} are rethrown when the traversal reaches the node.
+     */
+    public static final class PrefetchingPreOrder<T> implements Spliterator<T> {
+
+        private final Function<? super T, ? extends List<? extends T>> childGetter;
+        private final Executor executor;
+        private final int prefetch;
+        private final Semaphore inFlight;
+
+        // the work stack, slot i covers lists[i][index[i] ..), fetches[i] holds the fetches started for these nodes (allocated on demand)
+        private List<?>[] lists = new List<?>[16];
+        private int[] index = new int[16];
+        private Fetch<?>[][] fetches = new Fetch<?>[16][];
+        private int depth;
+
+        // number of started fetches whose result has not been taken yet
+        private int outstanding;
+
+        // the node emitted last and the fetch of its children, they are pushed on the next advance
+        private T pending;
+        private Fetch<?> pendingFetch;
+        private boolean hasPending;
+
+        public PrefetchingPreOrder(List<? extends T> roots, Function<? super T, ? extends List<? extends T>> childGetter,
+                Executor executor, int prefetch, int maxInFlight) {
+            if (prefetch < 0 || maxInFlight < 1) {
+                throw new IllegalArgumentException("prefetch=" + prefetch + ", maxInFlight=" + maxInFlight);
+            }
+            this.childGetter = childGetter;
+            this.executor = executor;
+            this.prefetch = prefetch;
+            this.inFlight = new Semaphore(maxInFlight);
+            push(roots);
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (hasPending) {
+                T node = pending;
+                Fetch<?> fetch = pendingFetch;
+                pending = null;
+                pendingFetch = null;
+                hasPending = false;
+                push(fetch != null ? join(fetch) : childGetter.apply(node));
+            }
+            while (depth > 0) {
+                int top = depth - 1;
+                if (index[top] < lists[top].size()) {
+                    int i = index[top]++;
+                    pending = get(top, i);
+                    hasPending = true;
+                    if (fetches[top] != null && fetches[top][i] != null) {
+                        pendingFetch = fetches[top][i];
+                        fetches[top][i] = null;
+                        outstanding--;
+                    }
+                    prefetch();
+                    action.accept(pending);
+                    return true;
+                }
+                pop();
+            }
+            return false;
+        }
+
+        /** starts fetches for the upcoming nodes, until the window is full or all permits are taken */
+        private void prefetch() {
+            for (int slot = depth - 1; slot >= 0 && outstanding < prefetch; slot--) {
+                int size = lists[slot].size();
+                for (int i = index[slot]; i < size && outstanding < prefetch; i++) {
+                    if (fetches[slot] == null) {
+                        fetches[slot] = new Fetch<?>[size];
+                    } else if (fetches[slot][i] != null) {
+                        continue;
+                    }
+                    if (!inFlight.tryAcquire()) {
+                        return;
+                    }
+                    T node = get(slot, i);
+                    Fetch<T> fetch = new Fetch<>(() -> childGetter.apply(node), inFlight);
+                    try {
+                        executor.execute(fetch);
+                    } catch (RuntimeException e) {
+                        inFlight.release();
+                        throw e;
+                    }
+                    fetches[slot][i] = fetch;
+                    outstanding++;
+                }
+            }
+        }
+
+        /** waits for the children, like {@code CompletableFuture.join()} without being interrupted, and rethrows what the childGetter threw */
+        @SuppressWarnings("unchecked")
+        private List<? extends T> join(Fetch<?> fetch) {
+            boolean interrupted = false;
+            try {
+                while (true) {
+                    try {
+                        return (List<? extends T>) fetch.get();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new CompletionException(e.getCause());
+            } finally {
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void push(List<? extends T> children) {
+            if (children == null || children.isEmpty()) {
+                return;
+            }
+            if (depth == lists.length) {
+                lists = Arrays.copyOf(lists, depth * 2);
+                index = Arrays.copyOf(index, depth * 2);
+                fetches = Arrays.copyOf(fetches, depth * 2);
+            }
+            lists[depth] = children instanceof RandomAccess ? children : new ArrayList<>(children);
+            index[depth] = 0;
+            fetches[depth] = null;
+            depth++;
+        }
+
+        private void pop() {
+            depth--;
+            lists[depth] = null;
+            fetches[depth] = null;
+        }
+
+        @SuppressWarnings("unchecked")
+        private T get(int slot, int i) {
+            return (T) lists[slot].get(i);
+        }
+
+        /**
+         * Cancels all fetches whose result has not been taken yet: the ones still queued on the executor never call the {@code childGetter},
+         * the running ones are interrupted. A {@code childGetter} that does not react to interrupts still runs to its end,
+         * but its result is dropped, and its permit of {@code maxInFlight} is released right away.
+         */
+        public void close() {
+            if (pendingFetch != null) {
+                pendingFetch.cancel(true);
+            }
+            pending = null;
+            pendingFetch = null;
+            hasPending = false;
+            while (depth > 0) {
+                Fetch<?>[] started = fetches[depth - 1];
+                if (started != null) {
+                    for (Fetch<?> fetch : started) {
+                        if (fetch != null) {
+                            fetch.cancel(true);
+                        }
+                    }
+                }
+                pop();
+            }
+            outstanding = 0;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            return null;
+        }
+
+        @Override
+        public long estimateSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED;
+        }
+
+        /** the fetch of the children of one node, it gives back its permit when it is done or cancelled */
+        private static final class Fetch<T> extends FutureTask<List<? extends T>> {
+            private final Semaphore inFlight;
+
+            Fetch(Callable<List<? extends T>> childGetter, Semaphore inFlight) {
+                super(childGetter);
+                this.inFlight = inFlight;
+            }
+
+            @Override
+            protected void done() {
+                inFlight.release();
+            }
+        }
+    }
+}
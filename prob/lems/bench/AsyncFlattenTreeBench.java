@@ -0,0 +1,86 @@
+package prob.lems.bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import prob.lems.TreeSpliterators;
+
+/**
+ * Flattens a tree of {@link SlowPerson}s, whose {@code kids()} takes 2 ms like our production lookup,
+ * once sequentially and once with prefetching, and checks that both produce the same order.<br>
+ * (this does not use {@code ProblemWithJavacButNotEclipse3.Person}, as that file does not compile with javac)
+ */
+public class AsyncFlattenTreeBench {
+
+    /** stand-in for the production Person, every lookup of the kids has some latency */
+    public static class SlowPerson {
+        private final int id;
+        private final List<SlowPerson> kids = new ArrayList<>();
+
+        public SlowPerson(int id) {
+            this.id = id;
+        }
+
+        public List<SlowPerson> kids() {
+            try {
+                Thread.sleep(2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return kids;
+        }
+
+        @Override
+        public String toString() {
+            return "Person" + id;
+        }
+    }
+
+    private static int ids;
+
+    private static SlowPerson tree(int depth, int width) {
+        SlowPerson person = new SlowPerson(ids++);
+        if (depth > 0) {
+            for (int i = 0; i < width; i++) {
+                person.kids.add(tree(depth - 1, width));
+            }
+        }
+        return person;
+    }
+
+    /** virtual threads where available (Java 21+), otherwise a plain thread pool */
+    private static ExecutorService executor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(64);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        List<SlowPerson> roots = Collections.singletonList(tree(4, 5));
+        ExecutorService executor = executor();
+        try {
+            List<SlowPerson> sequential = TreeSpliterators.preOrder(roots.stream(), p -> p.kids().stream()).collect(Collectors.toList());
+            List<SlowPerson> prefetched = TreeSpliterators.prefetchingPreOrder(roots, SlowPerson::kids, executor, 64, 32).collect(Collectors.toList());
+            if (!sequential.equals(prefetched)) {
+                throw new AssertionError("prefetching changed the order: " + sequential + " vs. " + prefetched);
+            }
+            System.out.println(sequential.size() + " persons, identical order");
+
+            Bench.run("flattenTree", 1, 3, () -> TreeSpliterators.preOrder(roots.stream(), p -> p.kids().stream()).count());
+            for (int prefetch : new int[] {8, 64, 256}) {
+                Bench.run("asyncFlattenTree prefetch=" + prefetch + " maxInFlight=32", 1, 3,
+                        () -> TreeSpliterators.prefetchingPreOrder(roots, SlowPerson::kids, executor, prefetch, 32).count());
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+}
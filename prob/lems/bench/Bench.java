@@ -0,0 +1,54 @@
+package prob.lems.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.function.Supplier;
+
+/**
+ * Minimal measurement harness for the benchmarks in this package, run them with the {@code bench_*} targets of the Makefile.<br>
+ * <br>
+ * This project has no build tool and therefore no JMH, so this only does the basics:
+ * warmup iterations, the average time per iteration, the bytes allocated by the calling thread
+ * (the equivalent of JMH's {@code -prof gc}) and the number of garbage collections.
+ * Good enough to compare two implementations in the same JVM, not for absolute numbers.
+ */
+public final class Bench {
+
+    /** results are written here, so the JIT cannot drop the benchmarked code */
+    public static volatile Object sink;
+
+    private Bench() {
+    }
+
+    public static void run(String name, int warmups, int iterations, Supplier<?> body) {
+        for (int i = 0; i < warmups; i++) {
+            sink = body.get();
+        }
+        long gcs = gcCount();
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = body.get();
+        }
+        long nanos = System.nanoTime() - start;
+        allocated = allocatedBytes() - allocated;
+        gcs = gcCount() - gcs;
+        System.out.printf("%-50s %12.3f ms/op %14d B/op %6d GCs%n", name, nanos / 1e6 / iterations, allocated / iterations, gcs);
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+}
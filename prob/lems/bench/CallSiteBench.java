@@ -0,0 +1,311 @@
+package prob.lems.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BiPredicate;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import lombok.experimental.ExtensionMethod;
+import prob.lems.IndexedFilters;
+import prob.lems.TitleCase;
+
+/**
+ * Whether the calls that Lombok rewrites cost anything: each extension method call site against the same call written as
+ * a static call by hand, and against a call of an instance method that does the same.<br>
+ * <br>
+ * The sites are {@code "hallo".toTitleCase()}, {@code value.or(default)} and {@code stream.filter((s, i) -> ...)}, directly and in
+ * lambdas, and in a {@code default} method against a class method, see {@link CallSiteDefaults}. The filter sites run on many short lists,
+ * so that they are called often enough for the JIT to compile them, like the other sites.
+ * The extension methods are copies of the ones in {@code ProblemWithInterfaces}, {@code ProblemWithExistingMethodInSubclass} and
+ * {@code ProblemWithOverloadedMethod} (which cannot be used here, as their files do not compile with javac).<br>
+ * <br>
+ * Compile it once per Lombok version, {@code make bench_call_sites} does that for both. It then runs the measurements
+ * in a second JVM with {@code -XX:+LogCompilation}, and shows for each site whether the JIT inlined the extension method into it:
+ * the rewrite must not keep it from doing so. The log is read task by task, each inlining decision belongs to the method that was
+ * being parsed when it was made, also if that method was inlined itself, eg. a lambda into the stream that calls it.
+ */
+public class CallSiteBench {
+
+    private static final int SIZE = 100_000;
+    // the filter sites run on lists of this size
+    private static final int SHORT_LIST = 10;
+    // LogCompilation: "<method id='1255' holder='1254' name='or' ...>", the values are XML escaped
+    private static final Pattern ATTRIBUTE = Pattern.compile(" (\\w+)='([^']*)'");
+
+    // --- copies of the extension methods
+
+    public static class Extensions {
+        public static String toTitleCase(String that) {
+            return TitleCase.toTitleCase(that);
+        }
+
+        public static <T> T or(T object, T ifNull) {
+            return object != null ? object : ifNull;
+        }
+
+        public static <T> Stream<T> filter(Stream<T> that, BiPredicate<? super T, Integer> predicate) {
+            return IndexedFilters.filter(that, predicate);
+        }
+    }
+
+    /** the same operations as instance methods */
+    static final class Titles {
+        String toTitleCase(String text) {
+            return TitleCase.toTitleCase(text);
+        }
+    }
+
+    // --- the sites
+
+    // suppressBaseMethods=false: otherwise Stream.filter(Predicate) fails, see ProblemWithOverloadedMethod.WorkaroundCase1
+    @ExtensionMethod(value = Extensions.class, suppressBaseMethods = false)
+    static final class ExtensionSites {
+        static int titleCase(String[] texts) {
+            int length = 0;
+            for (String text : texts) {
+                length += text.toTitleCase().length();
+            }
+            return length;
+        }
+
+        static int or(String[] values) {
+            int length = 0;
+            for (String value : values) {
+                length += value.or("none").length();
+            }
+            return length;
+        }
+
+        static long filter(List<List<String>> lists) {
+            long count = 0;
+            for (List<String> texts : lists) {
+                count += texts.stream().filter((text, index) -> index % 2 == 0).count();
+            }
+            return count;
+        }
+
+        static List<String> titleCaseInLambda(List<String> texts) {
+            return texts.stream().map(text -> text.toTitleCase()).collect(Collectors.toList());
+        }
+    }
+
+    static final class StaticSites {
+        static int titleCase(String[] texts) {
+            int length = 0;
+            for (String text : texts) {
+                length += Extensions.toTitleCase(text).length();
+            }
+            return length;
+        }
+
+        static int or(String[] values) {
+            int length = 0;
+            for (String value : values) {
+                length += Extensions.or(value, "none").length();
+            }
+            return length;
+        }
+
+        static long filter(List<List<String>> lists) {
+            long count = 0;
+            for (List<String> texts : lists) {
+                count += Extensions.filter(texts.stream(), (text, index) -> index % 2 == 0).count();
+            }
+            return count;
+        }
+
+        static List<String> titleCaseInLambda(List<String> texts) {
+            return texts.stream().map(text -> Extensions.toTitleCase(text)).collect(Collectors.toList());
+        }
+    }
+
+    static final class InstanceSites {
+        static final Titles TITLES = new Titles();
+
+        static int titleCase(String[] texts) {
+            int length = 0;
+            for (String text : texts) {
+                length += TITLES.toTitleCase(text).length();
+            }
+            return length;
+        }
+
+        static int or(String[] values) {
+            int length = 0;
+            for (String value : values) {
+                length += Optional.ofNullable(value).orElse("none").length();
+            }
+            return length;
+        }
+
+        /** the nearest instance method: {@code Stream.filter(Predicate)} has no index, so this counts the elements with a counter */
+        static long filter(List<List<String>> lists) {
+            long count = 0;
+            for (List<String> texts : lists) {
+                int[] index = { 0 };
+                count += texts.stream().filter(text -> index[0]++ % 2 == 0).count();
+            }
+            return count;
+        }
+
+        static List<String> titleCaseInLambda(List<String> texts) {
+            return texts.stream().map(TITLES::toTitleCase).collect(Collectors.toList());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("--measure")) {
+            measure();
+            return;
+        }
+        Path log = Files.createTempFile("call-sites", ".log");
+        List<String> command = new ArrayList<>(Arrays.asList(Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-XX:+UnlockDiagnosticVMOptions", "-XX:+LogCompilation", "-XX:LogFile=" + log,
+                "-cp", System.getProperty("java.class.path"), CallSiteBench.class.getName(), "--measure"));
+        Process process = new ProcessBuilder(command).inheritIO().start();
+        process.waitFor();
+        Map<String, String> decisions = decisions(Files.readAllLines(log, StandardCharsets.UTF_8));
+        Files.delete(log);
+        System.out.printf("%ninlining of the called methods into the sites (the last decision of C2, or else of C1)%n");
+        decisions.forEach((site, decision) -> System.out.printf("%s: %s%n", site, decision));
+    }
+
+    /** the inlining decisions for the extension methods in the sites, by site and called method, from the compilation log */
+    private static Map<String, String> decisions(List<String> log) {
+        Map<String, String> decisions = new LinkedHashMap<>();
+        Map<String, Boolean> byC2 = new LinkedHashMap<>();
+        // the ids of a task are only valid in that task
+        Map<String, String> klasses = new LinkedHashMap<>();
+        Map<String, String> methods = new LinkedHashMap<>();
+        Deque<String> parsed = new ArrayDeque<>();
+        boolean c2 = false;
+        String called = null;
+        for (String line : log) {
+            Map<String, String> attributes = attributes(line);
+            if (line.startsWith("<task ")) {
+                // C1 tasks have a tier level from 1 to 3, C2 tasks none
+                c2 = !attributes.containsKey("level") || attributes.get("level").equals("4");
+                klasses.clear();
+                methods.clear();
+                parsed.clear();
+                called = null;
+            } else if (line.startsWith("<klass ")) {
+                klasses.put(attributes.get("id"), attributes.get("name"));
+            } else if (line.startsWith("<method ")) {
+                methods.put(attributes.get("id"), klasses.get(attributes.get("holder")) + "::" + attributes.get("name"));
+            } else if (line.startsWith("<parse ")) {
+                parsed.push(methods.get(attributes.get("method")));
+                called = null;
+            } else if (line.startsWith("</parse>")) {
+                parsed.pop();
+                called = null;
+            } else if (line.startsWith("<call ")) {
+                called = methods.get(attributes.get("method"));
+            } else if ((line.startsWith("<inline_success ") || line.startsWith("<inline_fail ")) && called != null && !parsed.isEmpty()) {
+                String site = parsed.peek();
+                if ((site.contains("Sites::") || site.contains("$Greeter")) && isExtensionTarget(called)) {
+                    String key = String.format("%-66s -> %s", shortName(site), shortName(called));
+                    if (c2 || !byC2.getOrDefault(key, false)) {
+                        decisions.put(key, attributes.get("reason") + (c2 ? " (C2)" : " (C1)"));
+                        byC2.put(key, c2);
+                    }
+                }
+                called = null;
+            }
+        }
+        return decisions;
+    }
+
+    private static Map<String, String> attributes(String element) {
+        Map<String, String> attributes = new LinkedHashMap<>();
+        Matcher attribute = ATTRIBUTE.matcher(element);
+        while (attribute.find()) {
+            attributes.put(attribute.group(1), attribute.group(2).replace("&lt;", "<").replace("&gt;", ">").replace("&apos;", "'")
+                    .replace("&quot;", "\"").replace("&amp;", "&"));
+        }
+        return attributes;
+    }
+
+    private static boolean isExtensionTarget(String method) {
+        return method.contains("CallSiteBench$Extensions::") || method.contains("CallSiteBench$Titles::")
+                || method.startsWith("java.util.Optional::orElse") || method.contains("CallSiteDefaults$Extensions::");
+    }
+
+    private static String shortName(String method) {
+        return method.replace("prob.lems.bench.", "");
+    }
+
+    private static void measure() throws Exception {
+        String lombok = Paths.get(ExtensionMethod.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getFileName().toString();
+        System.out.println("with " + lombok);
+        String[] words = { "hallo", "welt", "M\u00fcller", null, "fran\u00e7ois", "SMITH", "de la", null };
+        String[] texts = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            texts[i] = words[i % words.length] == null ? "x" : words[i % words.length];
+        }
+        String[] values = new String[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            values[i] = words[i % words.length];
+        }
+        List<String> list = Arrays.asList(texts);
+        List<List<String>> lists = new ArrayList<>();
+        for (int i = 0; i < SIZE; i += SHORT_LIST) {
+            lists.add(list.subList(i, Math.min(i + SHORT_LIST, SIZE)));
+        }
+
+        if (ExtensionSites.titleCase(texts) != StaticSites.titleCase(texts) || ExtensionSites.or(values) != InstanceSites.or(values)
+                || ExtensionSites.filter(lists) != InstanceSites.filter(lists)
+                || !ExtensionSites.titleCaseInLambda(list).equals(InstanceSites.titleCaseInLambda(list))) {
+            throw new AssertionError("the sites do not compute the same");
+        }
+        Bench.run("toTitleCase  extension", 20, 50, () -> ExtensionSites.titleCase(texts));
+        Bench.run("toTitleCase  static", 20, 50, () -> StaticSites.titleCase(texts));
+        Bench.run("toTitleCase  instance", 20, 50, () -> InstanceSites.titleCase(texts));
+        Bench.run("or           extension", 20, 50, () -> ExtensionSites.or(values));
+        Bench.run("or           static", 20, 50, () -> StaticSites.or(values));
+        Bench.run("or           instance (Optional.orElse)", 20, 50, () -> InstanceSites.or(values));
+        Bench.run("filter       extension", 20, 50, () -> ExtensionSites.filter(lists));
+        Bench.run("filter       static", 20, 50, () -> StaticSites.filter(lists));
+        Bench.run("filter       instance (Stream.filter)", 20, 50, () -> InstanceSites.filter(lists));
+        Bench.run("lambda       extension", 20, 50, () -> ExtensionSites.titleCaseInLambda(list));
+        Bench.run("lambda       static", 20, 50, () -> StaticSites.titleCaseInLambda(list));
+        Bench.run("lambda       instance (method reference)", 20, 50, () -> InstanceSites.titleCaseInLambda(list));
+
+        Function<String, String> inDefaultMethod;
+        Function<String, String> inClassMethod;
+        try {
+            Class<?> defaults = Class.forName("prob.lems.bench.CallSiteDefaults");
+            @SuppressWarnings("unchecked")
+            Function<String, String>[] greeters = (Function<String, String>[]) defaults.getMethod("greeters").invoke(null);
+            inDefaultMethod = greeters[0];
+            inClassMethod = greeters[1];
+        } catch (ClassNotFoundException e) {
+            System.out.println("CallSiteDefaults does not compile with " + lombok + ", @ExtensionMethod is not allowed on interfaces");
+            return;
+        }
+        Bench.run("default method  extension", 20, 50, () -> greet(inDefaultMethod, texts));
+        Bench.run("class method    extension", 20, 50, () -> greet(inClassMethod, texts));
+    }
+
+    private static int greet(Function<String, String> greeter, String[] texts) {
+        int length = 0;
+        for (String text : texts) {
+            length += greeter.apply(text).length();
+        }
+        return length;
+    }
+}
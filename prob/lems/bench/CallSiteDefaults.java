@@ -0,0 +1,43 @@
+package prob.lems.bench;
+
+import java.util.function.Function;
+
+import lombok.experimental.ExtensionMethod;
+import prob.lems.TitleCase;
+
+/**
+ * The extension method call in a {@code default} method against the same call in a class, for {@link CallSiteBench},
+ * like {@code ProblemWithInterfaces} (which cannot be used here, as its file does not compile with javac).<br>
+ * This file only compiles with Lombok versions that allow {@code @ExtensionMethod} on an interface.
+ */
+public class CallSiteDefaults {
+
+    public static class Extensions {
+        public static String toTitleCase(String that) {
+            return TitleCase.toTitleCase(that);
+        }
+    }
+
+    @ExtensionMethod(CallSiteDefaults.Extensions.class)
+    public static interface GreeterAsInterface extends Function<String, String> {
+        @Override
+        public default String apply(String name) {
+            return name.toTitleCase();
+        }
+    }
+
+    @ExtensionMethod(CallSiteDefaults.Extensions.class)
+    public static class GreeterAsClass implements Function<String, String> {
+        @Override
+        public String apply(String name) {
+            return name.toTitleCase();
+        }
+    }
+
+    /** a greeter with the default method, and one with the class method */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static Function<String, String>[] greeters() {
+        return new Function[] { new GreeterAsInterface() {
+        }, new GreeterAsClass() };
+    }
+}
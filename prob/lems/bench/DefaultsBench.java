@@ -0,0 +1,77 @@
+package prob.lems.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import prob.lems.Defaults;
+
+/**
+ * Allocation of {@code or(object, ifNull)} vs. its lazy, primitive and cached variants in {@link Defaults}.<br>
+ * Most values are present, like in our request path, so any allocation for the fallback is wasted.
+ */
+public class DefaultsBench {
+
+    private static final Defaults.Cached<Properties> DEFAULT_CONFIG = Defaults.Cached.of(DefaultsBench::parseConfig);
+
+    /** same as {@code ObjectExtensions.or}, which cannot be used here, as its file does not compile with javac */
+    private static <T> T or(T object, T ifNull) {
+        return object != null ? object : ifNull;
+    }
+
+    private static Properties parseConfig() {
+        Properties config = new Properties();
+        for (int i = 0; i < 20; i++) {
+            config.setProperty("key" + i, "value" + i);
+        }
+        return config;
+    }
+
+    public static void main(String[] args) {
+        int n = 1_000_000;
+        Properties[] configs = new Properties[n];
+        Integer[] counts = new Integer[n];
+        Properties present = new Properties();
+        for (int i = 0; i < n; i++) {
+            configs[i] = i % 100 == 0 ? null : present;
+            counts[i] = i % 100 == 0 ? null : Integer.valueOf(i);
+        }
+
+        Bench.run("or(config, parseConfig())", 2, 5, () -> {
+            List<Properties> result = new ArrayList<>(n);
+            for (Properties config : configs) {
+                result.add(or(config, parseConfig()));
+            }
+            return result;
+        });
+        Bench.run("orGet(config, DefaultsBench::parseConfig)", 2, 5, () -> {
+            List<Properties> result = new ArrayList<>(n);
+            for (Properties config : configs) {
+                result.add(Defaults.orGet(config, DefaultsBench::parseConfig));
+            }
+            return result;
+        });
+        Bench.run("orCached(config, DEFAULT_CONFIG)", 2, 5, () -> {
+            List<Properties> result = new ArrayList<>(n);
+            for (Properties config : configs) {
+                result.add(Defaults.orCached(config, DEFAULT_CONFIG));
+            }
+            return result;
+        });
+
+        Bench.run("or(count, 1000)", 2, 5, () -> {
+            Integer[] result = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                result[i] = or(counts[i], 1000);
+            }
+            return result;
+        });
+        Bench.run("orInt(count, 1000)", 2, 5, () -> {
+            int[] result = new int[n];
+            for (int i = 0; i < n; i++) {
+                result[i] = Defaults.orInt(counts[i], 1000);
+            }
+            return result;
+        });
+    }
+}
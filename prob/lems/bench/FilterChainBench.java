@@ -0,0 +1,66 @@
+package prob.lems.bench;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import lombok.experimental.ExtensionMethod;
+import prob.lems.FilterChain;
+
+/**
+ * Six chained {@code Stream.filter} calls vs. the same predicates as one {@link FilterChain} stage, in the given and in adaptive order.<br>
+ * The predicates are ordered badly on purpose: the expensive ones that keep almost everything come first.
+ * The last case has a null element every 100 elements behind a {@code nonNull} guard, which adaptive order must keep in front.<br>
+ * <br>
+ * The {@code filters()} extension method is a copy of the one in {@code ProblemWithOverloadedMethod}, as that file does not compile with javac.
+ */
+@ExtensionMethod(FilterChainBench.Extensions.class)
+public class FilterChainBench {
+
+    public static class Extensions {
+        public static <T> FilterChain<T> filters(Stream<T> that) {
+            return FilterChain.of(that);
+        }
+    }
+
+    public static void main(String[] args) {
+        List<String> data = IntStream.range(0, 1_000_000).mapToObj(i -> "element-" + i).collect(Collectors.toList());
+        List<String> withNulls = IntStream.range(0, 1_000_000).mapToObj(i -> i % 100 == 0 ? null : "element-" + i).collect(Collectors.toList());
+
+        Predicate<String> expensive1 = s -> s.matches("element-\\d+");
+        Predicate<String> expensive2 = s -> s.toUpperCase().startsWith("ELEMENT");
+        Predicate<String> notEmpty = s -> !s.isEmpty();
+        Predicate<String> hasDash = s -> s.indexOf('-') > 0;
+        Predicate<String> shortish = s -> s.length() < 15;
+        Predicate<String> selective = s -> s.hashCode() % 10 == 0;
+
+        long expected = withNulls.stream().filter(Objects::nonNull)
+                .filter(expensive1).filter(expensive2).filter(notEmpty).filter(hasDash).filter(shortish).filter(selective)
+                .count();
+        long actual = withNulls.stream().filters().where(Objects::nonNull)
+                .whereIndependent(expensive1).whereIndependent(expensive2).whereIndependent(notEmpty)
+                .whereIndependent(hasDash).whereIndependent(shortish).whereIndependent(selective)
+                .adaptive(1).apply().count();
+        if (actual != expected) {
+            throw new AssertionError("adaptive order kept " + actual + " elements instead of " + expected);
+        }
+
+        Bench.run("chained Stream.filter", 3, 5, () -> data.stream()
+                .filter(expensive1).filter(expensive2).filter(notEmpty).filter(hasDash).filter(shortish).filter(selective)
+                .count());
+        Bench.run("filters().where()...apply()", 3, 5, () -> data.stream().filters()
+                .where(expensive1).where(expensive2).where(notEmpty).where(hasDash).where(shortish).where(selective)
+                .apply().count());
+        Bench.run("filters().whereIndependent()...adaptive().apply()", 3, 5, () -> data.stream().filters()
+                .whereIndependent(expensive1).whereIndependent(expensive2).whereIndependent(notEmpty)
+                .whereIndependent(hasDash).whereIndependent(shortish).whereIndependent(selective)
+                .adaptive().apply().count());
+        Bench.run("nonNull guard, then adaptive()", 3, 5, () -> withNulls.stream().filters().where(Objects::nonNull)
+                .whereIndependent(expensive1).whereIndependent(expensive2).whereIndependent(notEmpty)
+                .whereIndependent(hasDash).whereIndependent(shortish).whereIndependent(selective)
+                .adaptive().apply().count());
+    }
+}
@@ -0,0 +1,44 @@
+package prob.lems.bench;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import prob.lems.OptionalFlatMaps;
+
+/**
+ * {@code flatMap} over {@code stream(Optional)} vs. {@link OptionalFlatMaps#flatMapOptional}, where about half of the Optionals are empty.
+ */
+public class OptionalFlatMapBench {
+
+    /** same as {@code ProblemWithJavacButNotEclipse3.Extensions.stream}, which cannot be used here, as its file does not compile with javac */
+    private static <T> Stream<T> stream(Optional<T> that) {
+        return that.isPresent() ? Stream.of(that.get()) : Stream.empty();
+    }
+
+    private static Optional<String> lookup(Integer i) {
+        return i % 2 == 0 ? Optional.of("value") : Optional.empty();
+    }
+
+    private static OptionalInt lookupInt(Integer i) {
+        return i % 2 == 0 ? OptionalInt.of(i) : OptionalInt.empty();
+    }
+
+    public static void main(String[] args) {
+        List<Integer> data = IntStream.range(0, 1_000_000).boxed().collect(Collectors.toList());
+
+        Bench.run("flatMap(el -> stream(lookup(el)))", 3, 10,
+                () -> data.stream().flatMap(el -> stream(lookup(el))).collect(Collectors.toList()));
+        Bench.run("flatMapOptional(el -> lookup(el))", 3, 10,
+                () -> OptionalFlatMaps.flatMapOptional(data.stream(), el -> lookup(el)).collect(Collectors.toList()));
+        Bench.run("flatMapToInt(el -> IntStream.of(..))", 3, 10, () -> data.stream().flatMapToInt(el -> {
+            OptionalInt value = lookupInt(el);
+            return value.isPresent() ? IntStream.of(value.getAsInt()) : IntStream.empty();
+        }).sum());
+        Bench.run("flatMapOptionalInt(el -> lookupInt(el))", 3, 10,
+                () -> OptionalFlatMaps.flatMapOptionalInt(data.stream(), el -> lookupInt(el)).sum());
+    }
+}
@@ -0,0 +1,352 @@
+package prob.lems.bench;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import prob.lems.tools.LombokCompiler;
+
+/**
+ * How the compile time of {@code @ExtensionMethod} code grows with the amount of it, for every Lombok version.<br>
+ * <br>
+ * Generates sources shaped like {@link prob.lems.ProblemWithJavacButNotEclipse3} (which cannot be used here, as its file does not compile with javac):
+ * extension methods that take a lambda, called on a stream inside the lambdas passed to them, with
+ * <ul>
+ * <li>{@code N} extension classes in {@code @ExtensionMethod},</li>
+ * <li>{@code M} call sites,</li>
+ * <li>{@code K} overloads of each extension method, only one of them for {@code Stream}
+ * (like the {@code stream} and {@code filter} overloads of {@link prob.lems.ProblemWithOverloadedMethod}), and</li>
+ * <li>lambdas nested {@code D} levels deep.</li>
+ * </ul>
+ * Starting from a base configuration, each parameter is varied on its own. Every configuration is compiled in this JVM
+ * (see {@link LombokCompiler}) after a warmup, and the median wall time, the bytes allocated and the peak heap are written to
+ * {@code build/scaling/report.csv} and {@code build/scaling/report.html}. The report also shows the growth exponent of time and
+ * allocation between neighbouring points (1 is linear, 2 quadratic), and the ratio between the first and the last Lombok version.
+ * The allocation is the more stable of the two on a busy machine.
+ * The peak heap is the most heap in use at one time during the compilation: the heap only shrinks in a GC, so that is the heap
+ * in use right before one of the GCs during the compilation, or at its end (the peaks of the memory pools are not summed up,
+ * they are reached at different times).<br>
+ * <br>
+ * Usage: {@code ScalingBench [--runs r] [--n 1,2,4] [--m ...] [--k ...] [--d ...] [--lombok jar]...}, run it with {@code make bench_scaling}.
+ */
+public class ScalingBench {
+
+    private static final Path DIR = Paths.get("build/scaling");
+    private static final Path SOURCE = DIR.resolve("src/gen/Calls.java");
+    // the heap in use before a GC, the highest since the last reset
+    private static final AtomicLong PEAK = new AtomicLong();
+
+    /** the parameters of one generated source */
+    static final class Config {
+        final String sweep;
+        final int n;
+        final int m;
+        final int k;
+        final int d;
+
+        Config(String sweep, int n, int m, int k, int d) {
+            this.sweep = sweep;
+            this.n = n;
+            this.m = m;
+            this.k = k;
+            this.d = d;
+        }
+
+        int value() {
+            switch (sweep) {
+                case "N": return n;
+                case "M": return m;
+                case "K": return k;
+                default: return d;
+            }
+        }
+    }
+
+    static final class Measurement {
+        final long nanos;
+        final long allocated;
+        final long peakHeap;
+        final int errors;
+
+        Measurement(long nanos, long allocated, long peakHeap, int errors) {
+            this.nanos = nanos;
+            this.allocated = allocated;
+            this.peakHeap = peakHeap;
+            this.errors = errors;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = 3;
+        int[] ns = { 1, 2, 4, 8, 16 };
+        int[] ms = { 10, 20, 40, 80, 160 };
+        int[] ks = { 1, 2, 4, 8, 16 };
+        int[] ds = { 1, 2, 3, 4, 5 };
+        List<Path> jars = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--runs": runs = Integer.parseInt(args[++i]); break;
+                case "--n": ns = ints(args[++i]); break;
+                case "--m": ms = ints(args[++i]); break;
+                case "--k": ks = ints(args[++i]); break;
+                case "--d": ds = ints(args[++i]); break;
+                case "--lombok": jars.add(Paths.get(args[++i])); break;
+                default: throw new IllegalArgumentException("unknown argument " + args[i]);
+            }
+        }
+        if (jars.isEmpty()) {
+            jars = Arrays.asList(Paths.get("lombok-1.18.24.jar"), Paths.get("lombok-1.18.28.jar"));
+        }
+        // the base configuration, every sweep varies one parameter of it
+        int n = ns[Math.min(1, ns.length - 1)];
+        int m = ms[Math.min(1, ms.length - 1)];
+        int k = ks[Math.min(1, ks.length - 1)];
+        int d = ds[0];
+        List<Config> configs = new ArrayList<>();
+        for (int value : ns) {
+            configs.add(new Config("N", value, m, k, d));
+        }
+        for (int value : ms) {
+            configs.add(new Config("M", n, value, k, d));
+        }
+        for (int value : ks) {
+            configs.add(new Config("K", n, m, value, d));
+        }
+        for (int value : ds) {
+            configs.add(new Config("D", n, m, k, value));
+        }
+
+        Files.createDirectories(SOURCE.getParent());
+        watchGcs();
+        Map<String, List<Measurement>> results = new LinkedHashMap<>();
+        for (Path jar : jars) {
+            try (LombokCompiler compiler = new LombokCompiler(jar, Collections.singletonList(DIR.resolve("src")))) {
+                System.out.println("lombok " + compiler.version());
+                Files.write(SOURCE, generate(n, m, k, d).getBytes(StandardCharsets.UTF_8));
+                for (int i = 0; i < 5; i++) {
+                    measure(compiler); // warmup
+                }
+                List<Measurement> measurements = new ArrayList<>();
+                for (Config config : configs) {
+                    Files.write(SOURCE, generate(config.n, config.m, config.k, config.d).getBytes(StandardCharsets.UTF_8));
+                    List<Measurement> samples = new ArrayList<>();
+                    for (int run = 0; run < runs; run++) {
+                        samples.add(measure(compiler));
+                    }
+                    samples.sort((a, b) -> Long.compare(a.nanos, b.nanos));
+                    Measurement median = samples.get(samples.size() / 2);
+                    measurements.add(median);
+                    System.out.printf(Locale.ROOT, "  N=%-3d M=%-4d K=%-3d D=%-2d %8.1f ms %8.1f MB allocated %8.1f MB peak heap%s%n",
+                            config.n, config.m, config.k, config.d, median.nanos / 1e6, median.allocated / 1e6, median.peakHeap / 1e6,
+                            median.errors > 0 ? "  (" + median.errors + " compile errors)" : "");
+                }
+                results.put(compiler.version(), measurements);
+            }
+        }
+        writeCsv(configs, results);
+        writeHtml(configs, results);
+        System.out.println("written to " + DIR.resolve("report.csv") + " and " + DIR.resolve("report.html"));
+    }
+
+    private static int[] ints(String list) {
+        return Arrays.stream(list.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    // --- the generator
+
+    /**
+     * A class with {@code n} nested extension classes, each with {@code k} overloads of one method,
+     * and {@code m} methods calling them with lambdas nested {@code d} levels deep:
+     * <pre>
+     * list.stream().flatten0(p0 -&gt; p0.kids().stream().flatten0(p1 -&gt; p1.kids().stream())).count()
+     * </pre>
+     */
+    static String generate(int n, int m, int k, int d) {
+        StringBuilder s = new StringBuilder();
+        s.append("package gen;\n\n");
+        s.append("import java.util.List;\n");
+        s.append("import java.util.function.Function;\n");
+        s.append("import java.util.stream.Stream;\n\n");
+        s.append("import lombok.experimental.ExtensionMethod;\n\n");
+        s.append("@ExtensionMethod({");
+        for (int i = 0; i < n; i++) {
+            s.append(i == 0 ? "" : ", ").append("Calls.Extensions").append(i).append(".class");
+        }
+        s.append("})\n");
+        s.append("public class Calls {\n\n");
+        s.append("    public interface Node {\n");
+        s.append("        List<Node> kids();\n");
+        s.append("    }\n\n");
+        for (int h = 1; h < k; h++) {
+            s.append("    public interface Holder").append(h).append("<T> {\n    }\n\n");
+        }
+        for (int i = 0; i < n; i++) {
+            s.append("    public static class Extensions").append(i).append(" {\n");
+            for (int h = 0; h < k; h++) {
+                String receiver = h == 0 ? "Stream<? extends T>" : "Holder" + h + "<? extends T>";
+                s.append("        public static <T> Stream<T> flatten").append(i).append("(").append(receiver)
+                        .append(" that, Function<? super T, ? extends Stream<? extends T>> childGetter) {\n");
+                s.append("            return null;\n");
+                s.append("        }\n");
+            }
+            s.append("    }\n\n");
+        }
+        for (int j = 0; j < m; j++) {
+            s.append("    public long call").append(j).append("(List<Node> list) {\n");
+            s.append("        return list.stream().").append(call(j % n, 0, d)).append(".count();\n");
+            s.append("    }\n\n");
+        }
+        s.append("}\n");
+        return s.toString();
+    }
+
+    private static String call(int extension, int level, int depth) {
+        String p = "p" + level;
+        String body = p + ".kids().stream()" + (level + 1 < depth ? "." + call(extension, level + 1, depth) : "");
+        return "flatten" + extension + "(" + p + " -> " + body + ")";
+    }
+
+    // --- measuring
+
+    private static Measurement measure(LombokCompiler compiler) throws InterruptedException {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        System.gc();
+        // the notifications of the GCs come from another thread, the one of this GC must not count
+        Thread.sleep(100);
+        PEAK.set(0);
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        LombokCompiler.Result result = compiler.compile(Collections.singletonList(SOURCE), Collections.singletonList("-nowarn"));
+        allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+        long atEnd = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        Thread.sleep(100);
+        return new Measurement(result.nanos(), allocated, Math.max(PEAK.get(), atEnd), result.errors().size());
+    }
+
+    private static void watchGcs() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    long used = 0;
+                    for (MemoryUsage pool : info.getGcInfo().getMemoryUsageBeforeGc().values()) {
+                        used += pool.getUsed();
+                    }
+                    PEAK.accumulateAndGet(used, Math::max);
+                }
+            }, null, null);
+        }
+    }
+
+    // --- the reports
+
+    /** the exponent e of the growth from y1 to y2, if y grows like x^e, 0 if y does not grow, NaN if a value is not positive or x does not change */
+    private static double exponent(long y1, long y2, int x1, int x2) {
+        if (y1 <= 0 || y2 <= 0 || x1 <= 0 || x2 <= 0 || x1 == x2) {
+            return Double.NaN;
+        }
+        if (y1 == y2) {
+            return 0;
+        }
+        return Math.log((double) y2 / y1) / Math.log((double) x2 / x1);
+    }
+
+    /** the exponent with two decimals, {@code n/a} for NaN */
+    private static String format(double exponent) {
+        return Double.isNaN(exponent) ? "n/a" : String.format(Locale.ROOT, "%.2f", exponent);
+    }
+
+    private static String formatHtml(double exponent) {
+        return exponent > 1.2 ? "<span class=\"super\">" + format(exponent) + "</span>" : format(exponent);
+    }
+
+    private static void writeCsv(List<Config> configs, Map<String, List<Measurement>> results) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(DIR.resolve("report.csv"), StandardCharsets.UTF_8))) {
+            out.println("lombok,sweep,n,m,k,d,ms,ms_exponent,allocated_mb,allocated_exponent,peak_heap_mb,errors");
+            for (Map.Entry<String, List<Measurement>> entry : results.entrySet()) {
+                // the exponents are against the previous point of the same sweep, n/a for the first one
+                Map<String, Integer> previous = new HashMap<>();
+                for (int i = 0; i < configs.size(); i++) {
+                    Config c = configs.get(i);
+                    Measurement r = entry.getValue().get(i);
+                    Integer pi = previous.put(c.sweep, i);
+                    Measurement p = pi == null ? null : entry.getValue().get(pi);
+                    int px = pi == null ? 0 : configs.get(pi).value();
+                    out.printf(Locale.ROOT, "%s,%s,%d,%d,%d,%d,%.2f,%s,%.2f,%s,%.2f,%d%n", entry.getKey(), c.sweep, c.n, c.m, c.k, c.d,
+                            r.nanos / 1e6, p == null ? "n/a" : format(exponent(p.nanos, r.nanos, px, c.value())),
+                            r.allocated / 1e6, p == null ? "n/a" : format(exponent(p.allocated, r.allocated, px, c.value())),
+                            r.peakHeap / 1e6, r.errors);
+                }
+            }
+        }
+    }
+
+    private static void writeHtml(List<Config> configs, Map<String, List<Measurement>> results) throws IOException {
+        List<String> versions = new ArrayList<>(results.keySet());
+        double max = results.values().stream().flatMap(List::stream).mapToLong(r -> r.nanos).max().orElse(1);
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(DIR.resolve("report.html"), StandardCharsets.UTF_8))) {
+            out.println("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"><title>@ExtensionMethod compile time scaling</title>");
+            out.println("<style>body{font-family:sans-serif} table{border-collapse:collapse;margin-bottom:2em} "
+                    + "td,th{padding:2px 8px;text-align:right} .bar{background:#69c;height:10px} .super{color:#c00;font-weight:bold}</style>");
+            out.println("</head><body><h1>@ExtensionMethod compile time scaling</h1>");
+            out.println("<p>N extension classes, M call sites, K overloads per extension method, D lambda nesting depth. "
+                    + "The exponent is the growth between neighbouring points, above 1.2 it is marked as super-linear, "
+                    + "n/a if a value is zero.</p>");
+            for (String sweep : Arrays.asList("N", "M", "K", "D")) {
+                out.printf("<h2>%s</h2>%n<table><tr><th>%s</th>", sweep, sweep);
+                for (String version : versions) {
+                    out.printf("<th>%s ms</th><th>exponent</th><th>MB allocated</th><th>exponent</th><th>MB peak heap</th><th></th>", version);
+                }
+                if (versions.size() > 1) {
+                    out.printf("<th>%s / %s</th>", versions.get(versions.size() - 1), versions.get(0));
+                }
+                out.println("</tr>");
+                int previous = -1;
+                for (int i = 0; i < configs.size(); i++) {
+                    Config c = configs.get(i);
+                    if (!c.sweep.equals(sweep)) {
+                        continue;
+                    }
+                    out.printf("<tr><td>%d</td>", c.value());
+                    for (String version : versions) {
+                        Measurement r = results.get(version).get(i);
+                        Measurement p = previous >= 0 ? results.get(version).get(previous) : null;
+                        int x = c.value();
+                        int px = previous >= 0 ? configs.get(previous).value() : 0;
+                        out.printf(Locale.ROOT, "<td>%.1f</td><td>%s</td><td>%.1f</td><td>%s</td><td>%.1f</td><td><div class=\"bar\" style=\"width:%dpx\"></div></td>",
+                                r.nanos / 1e6, p == null ? "" : formatHtml(exponent(p.nanos, r.nanos, px, x)),
+                                r.allocated / 1e6, p == null ? "" : formatHtml(exponent(p.allocated, r.allocated, px, x)),
+                                r.peakHeap / 1e6, Math.round(200 * r.nanos / max));
+                    }
+                    if (versions.size() > 1) {
+                        out.printf(Locale.ROOT, "<td>%.2f</td>",
+                                (double) results.get(versions.get(versions.size() - 1)).get(i).nanos / results.get(versions.get(0)).get(i).nanos);
+                    }
+                    out.println("</tr>");
+                    previous = i;
+                }
+                out.println("</table>");
+            }
+            out.println("</body></html>");
+        }
+    }
+}
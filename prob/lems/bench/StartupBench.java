@@ -0,0 +1,115 @@
+package prob.lems.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Startup time of javac with Lombok for the {@code problemN} targets of the Makefile, with and without class data sharing.<br>
+ * <br>
+ * Runs javac as a new process, like the Makefile does, and measures the time until its first diagnostic
+ * (or until it exits, for the cases that compile) and the time until it exits, the median of several runs, for
+ * <ul>
+ * <li>{@code no CDS}: {@code -Xshare:off}, everything is loaded from the JDK modules and the jar,</li>
+ * <li>{@code JDK CDS}: the default archive of the JDK, which does not contain javac,</li>
+ * <li>{@code AppCDS}: the archive that {@code make cds} creates for javac and this Lombok version.</li>
+ * </ul>
+ * Usage: {@code StartupBench [--runs n] [--lombok jar]}, run it with {@code make bench_startup}.
+ */
+public class StartupBench {
+
+    private static final Map<String, String> TARGETS = new LinkedHashMap<>();
+
+    static {
+        TARGETS.put("problem1", "prob/lems/ProblemWithJavacButNotEclipse.java");
+        TARGETS.put("problem2", "prob/lems/ProblemWithJavacButNotEclipse2.java");
+        TARGETS.put("problem3", "prob/lems/ProblemWithJavacButNotEclipse3.java");
+        TARGETS.put("jni_problem", "prob/lems/JNIProblem.java");
+    }
+
+    public static void main(String[] args) throws Exception {
+        int runs = 5;
+        Path jar = Paths.get("lombok-1.18.28.jar");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--runs")) {
+                runs = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--lombok")) {
+                jar = Paths.get(args[++i]);
+            } else {
+                throw new IllegalArgumentException("unknown argument " + args[i]);
+            }
+        }
+        String version = jar.getFileName().toString().replaceFirst("^lombok-?", "").replaceFirst("\\.jar$", "");
+        Path archive = Paths.get("build/cds/javac-lombok-" + version + ".jsa");
+        Map<String, List<String>> variants = new LinkedHashMap<>();
+        variants.put("no CDS", Collections.singletonList("-J-Xshare:off"));
+        variants.put("JDK CDS", Collections.<String>emptyList());
+        if (Files.exists(archive)) {
+            variants.put("AppCDS", Collections.singletonList("-J-XX:SharedArchiveFile=" + archive));
+        } else {
+            System.out.println(archive + " does not exist, run \"make cds\" first");
+        }
+        Path output = Files.createDirectories(Paths.get("build/startup"));
+
+        System.out.printf(Locale.ROOT, "lombok %s, median of %d runs, ms until the first diagnostic / until javac exits%n", version, runs);
+        System.out.printf(Locale.ROOT, "%-14s", "target");
+        for (String variant : variants.keySet()) {
+            System.out.printf(Locale.ROOT, "%-18s", variant);
+        }
+        System.out.println();
+        for (Map.Entry<String, String> target : TARGETS.entrySet()) {
+            System.out.printf(Locale.ROOT, "%-14s", target.getKey());
+            for (List<String> flags : variants.values()) {
+                List<String> command = new ArrayList<>(Arrays.asList("javac"));
+                command.addAll(flags);
+                command.addAll(Arrays.asList("-cp", jar + File.pathSeparator + ".", "-d", output.toString(), target.getValue()));
+                long[] first = new long[runs];
+                long[] total = new long[runs];
+                run(command); // the first run after a change pays for the file system cache
+                for (int i = 0; i < runs; i++) {
+                    long[] times = run(command);
+                    first[i] = times[0];
+                    total[i] = times[1];
+                }
+                System.out.printf(Locale.ROOT, "%-18s", median(first) + " / " + median(total));
+            }
+            System.out.println();
+        }
+    }
+
+    /** nanos until the first line of output (or the exit), and until the exit */
+    private static long[] run(List<String> command) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        long first = -1;
+        try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (first < 0 && (line.contains(": error:") || line.contains(": warning:"))) {
+                    first = System.nanoTime() - start;
+                }
+            }
+        }
+        process.waitFor();
+        long total = System.nanoTime() - start;
+        return new long[] { first < 0 ? total : first, total };
+    }
+
+    private static long median(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2] / 1_000_000;
+    }
+}
@@ -0,0 +1,65 @@
+package prob.lems.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import prob.lems.TitleCase;
+
+/**
+ * {@link TitleCase} vs. a naive {@code Character.toTitleCase} loop, on ingestion-like records:
+ * mostly ASCII names, some Latin-1, a few Greek, and about a third of them already in title case.
+ */
+public class TitleCaseBench {
+
+    private static final String[] WORDS = {
+        "anna", "M\u00fcller", "JOHN", "smith", "Fran\u00e7ois", "\u00e9cole", "o'neil", "de", "la", "\u03c3\u03c9\u03ba\u03c1\u03ac\u03c4\u03b7\u03c2",
+    };
+
+    /** what everybody writes first: a StringBuilder and one code point at a time */
+    static String naiveTitleCase(String text) {
+        StringBuilder result = new StringBuilder(text.length());
+        boolean wordStart = true;
+        for (int i = 0; i < text.length();) {
+            int codePoint = text.codePointAt(i);
+            result.appendCodePoint(wordStart ? Character.toTitleCase(codePoint) : Character.toLowerCase(codePoint));
+            wordStart = Character.isWhitespace(codePoint);
+            i += Character.charCount(codePoint);
+        }
+        return result.toString();
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        List<String> records = new ArrayList<>();
+        for (int i = 0; i < 500_000; i++) {
+            StringBuilder record = new StringBuilder();
+            for (int w = 1 + random.nextInt(4); w > 0; w--) {
+                record.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            String text = record.toString().trim();
+            records.add(i % 3 == 0 ? TitleCase.toTitleCase(text) : text);
+        }
+        for (String record : records) {
+            if (!naiveTitleCase(record).equals(TitleCase.toTitleCase(record))) {
+                throw new AssertionError(record);
+            }
+        }
+
+        Bench.run("naive Character.toTitleCase loop", 3, 10, () -> {
+            List<String> result = new ArrayList<>(records.size());
+            for (String record : records) {
+                result.add(naiveTitleCase(record));
+            }
+            return result;
+        });
+        Bench.run("TitleCase.toTitleCase(String)", 3, 10, () -> {
+            List<String> result = new ArrayList<>(records.size());
+            for (String record : records) {
+                result.add(TitleCase.toTitleCase(record));
+            }
+            return result;
+        });
+        Bench.run("TitleCase.toTitleCase(List)", 3, 10, () -> TitleCase.toTitleCase(records));
+    }
+}
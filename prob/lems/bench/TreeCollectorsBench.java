@@ -0,0 +1,133 @@
+package prob.lems.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.management.NotificationEmitter;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+import prob.lems.TreeCollectors;
+import prob.lems.TreeSpliterators;
+
+/**
+ * Collecting a flattened tree of about 5.6 million nodes with {@code Collectors.toList()} against the collectors of {@link TreeCollectors},
+ * sequentially and in parallel, and handing the nodes on in chunks without collecting them at all.<br>
+ * (this does not use {@code ProblemWithJavacButNotEclipse3.Person}, as that file does not compile with javac)<br>
+ * <br>
+ * Besides the time, allocation and GCs of {@link Bench}, this shows the heap of one more run, above the tree itself:
+ * the peak of the live heap, ie. the most heap in use after a GC during the run, and the heap the result keeps after a last GC.
+ */
+public class TreeCollectorsBench {
+
+    /** stand-in for the production Person, which knows the size of its subtree */
+    public static class Node {
+        private final List<Node> kids = new ArrayList<>();
+        private int subtreeSize = 1;
+
+        public List<Node> kids() {
+            return kids;
+        }
+
+        public int subtreeSize() {
+            return subtreeSize;
+        }
+    }
+
+    // the heap in use after a GC, the highest since the last reset
+    private static final AtomicLong PEAK = new AtomicLong();
+
+    private static Node tree(int depth, int width) {
+        Node node = new Node();
+        if (depth > 0) {
+            for (int i = 0; i < width; i++) {
+                Node kid = tree(depth - 1, width);
+                node.kids.add(kid);
+                node.subtreeSize += kid.subtreeSize;
+            }
+        }
+        return node;
+    }
+
+    private static Stream<Node> flattenTree(List<Node> roots) {
+        return TreeSpliterators.preOrder(roots.stream(), node -> node.kids.stream());
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        Node root = tree(11, 4);
+        List<Node> roots = Collections.singletonList(root);
+        int count = root.subtreeSize();
+        List<Node> expected = flattenTree(roots).collect(Collectors.toList());
+        if (!expected.equals(TreeCollectors.toTreeList(flattenTree(roots), count))
+                || !expected.equals(TreeSpliterators.parallelPreOrder(roots, Node::kids, Node::subtreeSize).collect(TreeCollectors.toChunkedList()))) {
+            throw new AssertionError("the collectors changed the nodes or their order");
+        }
+        expected = null;
+        watchGcs();
+        System.out.println(count + " nodes");
+
+        run("flattenTree  Collectors.toList()",
+                () -> flattenTree(roots).collect(Collectors.toList()));
+        run("flattenTree  toTreeList(subtreeSize)",
+                () -> TreeCollectors.toTreeList(flattenTree(roots), count));
+        run("flattenTree  toChunkedList()",
+                () -> flattenTree(roots).collect(TreeCollectors.toChunkedList()));
+        run("flattenTree  forEachChunk(4096)", () -> {
+            long[] sum = { 0 };
+            TreeCollectors.forEachChunk(flattenTree(roots), 4096, chunk -> {
+                for (Node node : chunk) {
+                    sum[0] += node.subtreeSize;
+                }
+            });
+            return sum[0];
+        });
+        run("parallelFlattenTree  Collectors.toList()",
+                () -> TreeSpliterators.parallelPreOrder(roots, Node::kids, Node::subtreeSize).collect(Collectors.toList()));
+        run("parallelFlattenTree  toChunkedList()",
+                () -> TreeSpliterators.parallelPreOrder(roots, Node::kids, Node::subtreeSize).collect(TreeCollectors.toChunkedList()));
+    }
+
+    private static void run(String name, Supplier<?> body) throws InterruptedException {
+        Bench.run(name, 3, 10, body);
+        Bench.sink = null;
+        System.gc();
+        Thread.sleep(100);
+        long before = heapUsed();
+        PEAK.set(before);
+        Object result = body.get();
+        System.gc();
+        long kept = heapUsed() - before;
+        // the notifications of the GCs come from another thread
+        Thread.sleep(100);
+        Bench.sink = result;
+        System.out.printf("%-50s %12.1f MB peak live heap %9.1f MB kept%n", "", (PEAK.get() - before) / 1e6, kept / 1e6);
+    }
+
+    private static long heapUsed() {
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static void watchGcs() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            ((NotificationEmitter) gc).addNotificationListener((notification, handback) -> {
+                if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION)) {
+                    GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+                    long used = 0;
+                    for (MemoryUsage pool : info.getGcInfo().getMemoryUsageAfterGc().values()) {
+                        used += pool.getUsed();
+                    }
+                    PEAK.accumulateAndGet(used, Math::max);
+                }
+            }, null, null);
+        }
+    }
+}
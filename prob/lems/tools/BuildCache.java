@@ -0,0 +1,616 @@
+package prob.lems.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+
+/**
+ * Caches compilation results (class files and diagnostics) on disk, keyed by the content of what went into them.<br>
+ * <br>
+ * The key is a SHA-256 over the compiled sources, the digest of the Lombok jar, the Java version and the options.
+ * All sources javac read, also the ones it found on the source path (eg. {@link prob.lems.TitleCase} for {@link prob.lems.ProblemWithInterfaces}),
+ * are stored in the entry with the hashes of the content javac read (see {@link LombokCompiler.Result#inputs()}),
+ * and a hit is only used if the files still have that content. A compilation that read other content of the compiled sources
+ * than the key was made of, as they were saved in the meantime, is not cached at all.
+ * So an unchanged case costs hashing its files, which are memory-mapped for that, and each file is hashed once per modification.<br>
+ * <br>
+ * The directory contains
+ * <ul>
+ * <li>{@code index}: a memory-mapped hash table (open addressing, linear probing) with the key, size and last use of every entry,
+ * rebuilt when the slots of deleted entries pile up,</li>
+ * <li>{@code lock}: locked while the index is used, so several processes can share the cache,</li>
+ * <li>{@code objects/}: one file per entry, written to a temporary file first and then moved, so it is never seen half written.</li>
+ * </ul>
+ * When the entries get bigger than {@code maxBytes}, the least recently used ones are deleted.
+ * Thread-safe: the index is only touched with the monitor of the directory and the file lock held. The monitor is shared by all
+ * instances on the same directory in a JVM, as a second lock on the same file would throw an {@link java.nio.channels.OverlappingFileLockException}.
+ */
+public final class BuildCache implements AutoCloseable {
+
+    private static final int MAGIC = 0x4C504243; // LPBC
+    private static final int FORMAT = 3;
+    private static final int HEADER = 40;
+    private static final int SLOT = 48;
+    private static final int KEY = 32;
+    private static final int EMPTY = 0;
+    private static final int USED = 1;
+    private static final int DELETED = 2;
+    private static final int INITIAL_SLOTS = 1024;
+
+    // header: magic, format, slot count, used slots, total bytes of the entries, LRU clock, deleted slots
+    private static final int H_SLOTS = 8;
+    private static final int H_USED = 12;
+    private static final int H_BYTES = 16;
+    private static final int H_CLOCK = 24;
+    private static final int H_DELETED = 32;
+    // slot: key, last use, size, state
+    private static final int S_LAST_USE = 32;
+    private static final int S_SIZE = 40;
+    private static final int S_STATE = 44;
+
+    private static final Map<Path, FileHash> FILE_HASHES = new ConcurrentHashMap<>();
+    private static final Map<Path, Object> MONITORS = new ConcurrentHashMap<>();
+
+    private final Object monitor;
+    private final Path objects;
+    private final long maxBytes;
+    private final FileChannel lockChannel;
+    private final FileChannel indexChannel;
+    private MappedByteBuffer index;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public BuildCache(Path dir, long maxBytes) throws IOException {
+        this.objects = dir.resolve("objects");
+        this.maxBytes = maxBytes;
+        Files.createDirectories(objects);
+        monitor = MONITORS.computeIfAbsent(dir.toRealPath(), path -> new Object());
+        lockChannel = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        indexChannel = FileChannel.open(dir.resolve("index"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        synchronized (monitor) {
+            FileLock lock = lockChannel.lock();
+            try {
+                if (indexChannel.size() < HEADER) {
+                    create(INITIAL_SLOTS);
+                } else {
+                    index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+                    if (index.getInt(0) != MAGIC || index.getInt(4) != FORMAT) {
+                        // the entries of another format are unknown to the new index, and would never be evicted
+                        try (DirectoryStream<Path> stale = Files.newDirectoryStream(objects)) {
+                            for (Path object : stale) {
+                                Files.deleteIfExists(object);
+                            }
+                        }
+                        create(INITIAL_SLOTS);
+                    }
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /** the cached result for {@code sources}, or else the result of compiling them, which is then cached */
+    public LombokCompiler.Result compile(LombokCompiler compiler, List<Path> sources, List<String> options) throws IOException {
+        List<byte[]> hashes = new ArrayList<>(sources.size());
+        for (Path source : sources) {
+            hashes.add(hash(source));
+        }
+        byte[] key = key(compiler, sources, hashes, options);
+        LombokCompiler.Result cached = get(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        LombokCompiler.Result result = compiler.compile(sources, options);
+        if (readAsHashed(sources, hashes, result)) {
+            put(key, result);
+        }
+        return result;
+    }
+
+    /** whether javac read the same content of the sources as they had when the key was made */
+    private static boolean readAsHashed(List<Path> sources, List<byte[]> hashes, LombokCompiler.Result result) {
+        for (int i = 0; i < sources.size(); i++) {
+            if (!Arrays.equals(hashes.get(i), result.inputs().get(sources.get(i).toAbsolutePath().normalize()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int hits() {
+        return hits.get();
+    }
+
+    public int misses() {
+        return misses.get();
+    }
+
+    private static byte[] key(LombokCompiler compiler, List<Path> sources, List<byte[]> hashes, List<String> options) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(compiler.digest());
+        update(digest, System.getProperty("java.vm.vendor"));
+        update(digest, System.getProperty("java.runtime.version"));
+        for (String option : options) {
+            update(digest, option);
+        }
+        for (int i = 0; i < sources.size(); i++) {
+            update(digest, sources.get(i).toAbsolutePath().normalize().toString());
+            digest.update(hashes.get(i));
+        }
+        return digest.digest();
+    }
+
+    private static void update(MessageDigest digest, String text) {
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    // --- entries
+
+    private LombokCompiler.Result get(byte[] key) throws IOException {
+        synchronized (monitor) {
+            FileLock lock = lockChannel.lock();
+            try {
+                remapIfGrown();
+                int slot = find(key);
+                if (slot < 0) {
+                    return null;
+                }
+                index.putLong(slotOffset(slot) + S_LAST_USE, tick());
+            } finally {
+                lock.release();
+            }
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(object(key));
+        } catch (NoSuchFileException e) {
+            return null; // evicted by someone else in the meantime
+        }
+        return read(bytes);
+    }
+
+    private void put(byte[] key, LombokCompiler.Result result) throws IOException {
+        byte[] bytes = write(result);
+        Path temp = Files.createTempFile(objects, "new", ".tmp");
+        Files.write(temp, bytes);
+        synchronized (monitor) {
+            FileLock lock = lockChannel.lock();
+            try {
+                remapIfGrown();
+                Files.move(temp, object(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                int slot = find(key);
+                if (slot >= 0) {
+                    index.putLong(H_BYTES, index.getLong(H_BYTES) - index.getInt(slotOffset(slot) + S_SIZE));
+                } else {
+                    int used = index.getInt(H_USED) + 1;
+                    if ((used + index.getInt(H_DELETED)) * 2 > slots()) {
+                        // deleted slots only go away with a rebuild, which doubles the slots if the entries need them
+                        rebuild(used * 4 > slots() ? slots() * 2 : slots());
+                    }
+                    slot = insert(key);
+                    index.putInt(H_USED, used);
+                }
+                int offset = slotOffset(slot);
+                index.putLong(offset + S_LAST_USE, tick());
+                index.putInt(offset + S_SIZE, bytes.length);
+                index.putLong(H_BYTES, index.getLong(H_BYTES) + bytes.length);
+                evict();
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /** deletes the least recently used entries, until the entries take at most 90% of {@code maxBytes} */
+    private void evict() throws IOException {
+        if (index.getLong(H_BYTES) <= maxBytes) {
+            return;
+        }
+        List<Integer> used = new ArrayList<>();
+        for (int slot = 0; slot < slots(); slot++) {
+            if (index.getInt(slotOffset(slot) + S_STATE) == USED) {
+                used.add(slot);
+            }
+        }
+        used.sort((a, b) -> Long.compare(index.getLong(slotOffset(a) + S_LAST_USE), index.getLong(slotOffset(b) + S_LAST_USE)));
+        for (int slot : used) {
+            if (index.getLong(H_BYTES) <= maxBytes / 10 * 9) {
+                break;
+            }
+            int offset = slotOffset(slot);
+            Files.deleteIfExists(object(key(slot)));
+            index.putLong(H_BYTES, index.getLong(H_BYTES) - index.getInt(offset + S_SIZE));
+            index.putInt(H_USED, index.getInt(H_USED) - 1);
+            index.putInt(H_DELETED, index.getInt(H_DELETED) + 1);
+            index.putInt(offset + S_STATE, DELETED);
+        }
+    }
+
+    private Path object(byte[] key) {
+        StringBuilder name = new StringBuilder();
+        for (byte b : key) {
+            name.append(String.format("%02x", b & 0xFF));
+        }
+        return objects.resolve(name.toString());
+    }
+
+    // --- the index
+
+    private void create(int slots) throws IOException {
+        indexChannel.truncate(0);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) slots * SLOT);
+        index.putInt(0, MAGIC);
+        index.putInt(4, FORMAT);
+        index.putInt(H_SLOTS, slots);
+    }
+
+    /** another process may have grown the index, then the mapping has to be renewed */
+    private void remapIfGrown() throws IOException {
+        if (indexChannel.size() != index.capacity()) {
+            index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, indexChannel.size());
+        }
+    }
+
+    /** puts the entries into {@code slots} slots again, without the deleted ones, in place, so other processes only have to map the file again */
+    private void rebuild(int slots) throws IOException {
+        Map<ByteBuffer, long[]> entries = new LinkedHashMap<>();
+        for (int slot = 0; slot < slots(); slot++) {
+            int offset = slotOffset(slot);
+            if (index.getInt(offset + S_STATE) == USED) {
+                entries.put(ByteBuffer.wrap(key(slot)), new long[] { index.getLong(offset + S_LAST_USE), index.getInt(offset + S_SIZE) });
+            }
+        }
+        long bytes = index.getLong(H_BYTES);
+        long clock = index.getLong(H_CLOCK);
+        index = indexChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + (long) slots * SLOT);
+        for (int i = H_SLOTS; i < index.capacity(); i += 4) {
+            index.putInt(i, 0);
+        }
+        index.putInt(H_SLOTS, slots);
+        index.putInt(H_USED, entries.size());
+        index.putLong(H_BYTES, bytes);
+        index.putLong(H_CLOCK, clock);
+        for (Map.Entry<ByteBuffer, long[]> entry : entries.entrySet()) {
+            int offset = slotOffset(insert(entry.getKey().array()));
+            index.putLong(offset + S_LAST_USE, entry.getValue()[0]);
+            index.putInt(offset + S_SIZE, (int) entry.getValue()[1]);
+        }
+    }
+
+    private int slots() {
+        return index.getInt(H_SLOTS);
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER + slot * SLOT;
+    }
+
+    private long tick() {
+        long clock = index.getLong(H_CLOCK) + 1;
+        index.putLong(H_CLOCK, clock);
+        return clock;
+    }
+
+    private byte[] key(int slot) {
+        byte[] key = new byte[KEY];
+        for (int i = 0; i < KEY; i++) {
+            key[i] = index.get(slotOffset(slot) + i);
+        }
+        return key;
+    }
+
+    private boolean keyEquals(int slot, byte[] key) {
+        int offset = slotOffset(slot);
+        for (int i = 0; i < KEY; i++) {
+            if (index.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int home(byte[] key) {
+        // the key is a hash already, the slot count a power of two
+        return ByteBuffer.wrap(key).getInt() & (slots() - 1);
+    }
+
+    /** the slot of {@code key}, or -1 */
+    private int find(byte[] key) {
+        int slots = slots();
+        for (int i = 0, slot = home(key); i < slots; i++, slot = (slot + 1) & (slots - 1)) {
+            int state = index.getInt(slotOffset(slot) + S_STATE);
+            if (state == EMPTY) {
+                return -1;
+            }
+            if (state == USED && keyEquals(slot, key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /** takes the first free slot for {@code key}, which must not be in the index yet */
+    private int insert(byte[] key) {
+        int slots = slots();
+        int slot = home(key);
+        while (index.getInt(slotOffset(slot) + S_STATE) == USED) {
+            slot = (slot + 1) & (slots - 1);
+        }
+        int offset = slotOffset(slot);
+        if (index.getInt(offset + S_STATE) == DELETED) {
+            index.putInt(H_DELETED, index.getInt(H_DELETED) - 1);
+        }
+        for (int i = 0; i < KEY; i++) {
+            index.put(offset + i, key[i]);
+        }
+        index.putInt(offset + S_STATE, USED);
+        return slot;
+    }
+
+    @Override
+    public void close() throws IOException {
+        indexChannel.close();
+        lockChannel.close();
+    }
+
+    // --- hashing
+
+    /** the hash of a file, with the modification time and size it had then, to remember the hash until the file is changed */
+    private static final class FileHash {
+        final long modified;
+        final long size;
+        final byte[] hash;
+
+        FileHash(BasicFileAttributes attributes, byte[] hash) {
+            this.modified = attributes.lastModifiedTime().toMillis();
+            this.size = attributes.size();
+            this.hash = hash;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return modified == attributes.lastModifiedTime().toMillis() && size == attributes.size();
+        }
+    }
+
+    /** SHA-256 of the content of a file, remembered until the file is modified, by path, so only the last hash of a file is kept */
+    static byte[] hash(Path file) throws IOException {
+        Path path = file.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        FileHash known = FILE_HASHES.get(path);
+        if (known == null || !known.matches(attributes)) {
+            known = new FileHash(attributes, sha256(path));
+            FILE_HASHES.put(path, known);
+        }
+        return known.hash;
+    }
+
+    /** SHA-256 of the content of a file, which is memory-mapped for that */
+    static byte[] sha256(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MessageDigest digest = sha256();
+            if (channel.size() > 0) {
+                digest.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+            return digest.digest();
+        }
+    }
+
+    static byte[] sha256(byte[] bytes) {
+        return sha256().digest(bytes);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("every JRE has SHA-256", e);
+        }
+    }
+
+    // --- serialization of results
+
+    private static byte[] write(LombokCompiler.Result result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(result.inputs().size());
+            for (Map.Entry<Path, byte[]> input : result.inputs().entrySet()) {
+                out.writeUTF(input.getKey().toString());
+                out.write(input.getValue());
+            }
+            out.writeBoolean(result.success());
+            out.writeLong(result.nanos());
+            out.writeInt(result.diagnostics().size());
+            for (Diagnostic<? extends JavaFileObject> diagnostic : result.diagnostics()) {
+                out.writeUTF(diagnostic.getKind().name());
+                JavaFileObject source = diagnostic.getSource();
+                out.writeUTF(source == null ? "" : source.toUri().toString());
+                out.writeUTF(source == null ? "" : source.getName());
+                out.writeLong(diagnostic.getLineNumber());
+                out.writeLong(diagnostic.getColumnNumber());
+                writeString(out, diagnostic.getMessage(Locale.ENGLISH));
+            }
+            out.writeInt(result.classes().size());
+            for (Map.Entry<String, byte[]> entry : result.classes().entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().length);
+                out.write(entry.getValue());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /** the result, or {@code null} if one of the source files it was compiled from has changed since */
+    private static LombokCompiler.Result read(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        int inputCount = in.readInt();
+        SortedMap<Path, byte[]> inputs = new TreeMap<>();
+        for (int i = 0; i < inputCount; i++) {
+            Path input = Paths.get(in.readUTF());
+            byte[] hash = new byte[KEY];
+            in.readFully(hash);
+            try {
+                if (!Arrays.equals(hash, hash(input))) {
+                    return null;
+                }
+            } catch (NoSuchFileException e) {
+                return null;
+            }
+            inputs.put(input, hash);
+        }
+        boolean success = in.readBoolean();
+        long nanos = in.readLong();
+        int diagnosticCount = in.readInt();
+        List<Diagnostic<? extends JavaFileObject>> diagnostics = new ArrayList<>(diagnosticCount);
+        for (int i = 0; i < diagnosticCount; i++) {
+            Diagnostic.Kind kind = Diagnostic.Kind.valueOf(in.readUTF());
+            String uri = in.readUTF();
+            String name = in.readUTF();
+            JavaFileObject source = uri.isEmpty() ? null : new StoredSource(URI.create(uri), name);
+            diagnostics.add(new StoredDiagnostic(kind, source, in.readLong(), in.readLong(), readString(in)));
+        }
+        int classCount = in.readInt();
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        for (int i = 0; i < classCount; i++) {
+            String name = in.readUTF();
+            byte[] bytecode = new byte[in.readInt()];
+            in.readFully(bytecode);
+            classes.put(name, bytecode);
+        }
+        return new LombokCompiler.Result(success, diagnostics, classes, inputs, nanos, true);
+    }
+
+    // writeUTF is limited to 64k, which a long diagnostic could exceed
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class StoredSource extends SimpleJavaFileObject {
+        private final String name;
+
+        StoredSource(URI uri, String name) {
+            super(uri, JavaFileObject.Kind.SOURCE);
+            this.name = name;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+            return new String(Files.readAllBytes(Paths.get(toUri())), StandardCharsets.UTF_8);
+        }
+    }
+
+    /** a diagnostic read from the cache, with the message already in English */
+    private static final class StoredDiagnostic implements Diagnostic<JavaFileObject> {
+        private final Kind kind;
+        private final JavaFileObject source;
+        private final long line;
+        private final long column;
+        private final String message;
+
+        StoredDiagnostic(Kind kind, JavaFileObject source, long line, long column, String message) {
+            this.kind = kind;
+            this.source = source;
+            this.line = line;
+            this.column = column;
+            this.message = message;
+        }
+
+        @Override
+        public Kind getKind() {
+            return kind;
+        }
+
+        @Override
+        public JavaFileObject getSource() {
+            return source;
+        }
+
+        @Override
+        public long getPosition() {
+            return NOPOS;
+        }
+
+        @Override
+        public long getStartPosition() {
+            return NOPOS;
+        }
+
+        @Override
+        public long getEndPosition() {
+            return NOPOS;
+        }
+
+        @Override
+        public long getLineNumber() {
+            return line;
+        }
+
+        @Override
+        public long getColumnNumber() {
+            return column;
+        }
+
+        @Override
+        public String getCode() {
+            return null;
+        }
+
+        @Override
+        public String getMessage(Locale locale) {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return (source != null ? source.getName() + ":" + line + ": " : "") + kind.name().toLowerCase(Locale.ROOT) + ": " + message;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package prob.lems.tools;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decoding of JVM instructions, for the tools that look into method bodies.
+ */
+public final class Bytecode {
+
+    public static final int I2L = 0x85;
+    public static final int I2F = 0x86;
+    public static final int I2D = 0x87;
+    public static final int L2F = 0x89;
+    public static final int L2D = 0x8A;
+    public static final int F2D = 0x8D;
+    public static final int TABLESWITCH = 0xAA;
+    public static final int LOOKUPSWITCH = 0xAB;
+    public static final int INVOKEVIRTUAL = 0xB6;
+    public static final int INVOKESPECIAL = 0xB7;
+    public static final int INVOKESTATIC = 0xB8;
+    public static final int INVOKEINTERFACE = 0xB9;
+    public static final int INVOKEDYNAMIC = 0xBA;
+    public static final int WIDE = 0xC4;
+
+    private static final String[] NAMES = {
+        "nop", "aconst_null", "iconst_m1", "iconst_0", "iconst_1", "iconst_2", "iconst_3", "iconst_4", "iconst_5", "lconst_0",
+        "lconst_1", "fconst_0", "fconst_1", "fconst_2", "dconst_0", "dconst_1", "bipush", "sipush", "ldc", "ldc_w", "ldc2_w",
+        "iload", "lload", "fload", "dload", "aload", "iload_0", "iload_1", "iload_2", "iload_3", "lload_0", "lload_1", "lload_2",
+        "lload_3", "fload_0", "fload_1", "fload_2", "fload_3", "dload_0", "dload_1", "dload_2", "dload_3", "aload_0", "aload_1",
+        "aload_2", "aload_3", "iaload", "laload", "faload", "daload", "aaload", "baload", "caload", "saload", "istore", "lstore",
+        "fstore", "dstore", "astore", "istore_0", "istore_1", "istore_2", "istore_3", "lstore_0", "lstore_1", "lstore_2",
+        "lstore_3", "fstore_0", "fstore_1", "fstore_2", "fstore_3", "dstore_0", "dstore_1", "dstore_2", "dstore_3", "astore_0",
+        "astore_1", "astore_2", "astore_3", "iastore", "lastore", "fastore", "dastore", "aastore", "bastore", "castore",
+        "sastore", "pop", "pop2", "dup", "dup_x1", "dup_x2", "dup2", "dup2_x1", "dup2_x2", "swap", "iadd", "ladd", "fadd",
+        "dadd", "isub", "lsub", "fsub", "dsub", "imul", "lmul", "fmul", "dmul", "idiv", "ldiv", "fdiv", "ddiv", "irem", "lrem",
+        "frem", "drem", "ineg", "lneg", "fneg", "dneg", "ishl", "lshl", "ishr", "lshr", "iushr", "lushr", "iand", "land", "ior",
+        "lor", "ixor", "lxor", "iinc", "i2l", "i2f", "i2d", "l2i", "l2f", "l2d", "f2i", "f2l", "f2d", "d2i", "d2l", "d2f", "i2b",
+        "i2c", "i2s", "lcmp", "fcmpl", "fcmpg", "dcmpl", "dcmpg", "ifeq", "ifne", "iflt", "ifge", "ifgt", "ifle", "if_icmpeq",
+        "if_icmpne", "if_icmplt", "if_icmpge", "if_icmpgt", "if_icmple", "if_acmpeq", "if_acmpne", "goto", "jsr", "ret",
+        "tableswitch", "lookupswitch", "ireturn", "lreturn", "freturn", "dreturn", "areturn", "return", "getstatic", "putstatic",
+        "getfield", "putfield", "invokevirtual", "invokespecial", "invokestatic", "invokeinterface", "invokedynamic", "new",
+        "newarray", "anewarray", "arraylength", "athrow", "checkcast", "instanceof", "monitorenter", "monitorexit", "wide",
+        "multianewarray", "ifnull", "ifnonnull", "goto_w", "jsr_w"
+    };
+
+    // instruction length by opcode, 0 for the variable length ones
+    private static final int[] LENGTHS = {
+        1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 2, 3, 2, 3, 3, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+        1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+        1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+        1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 3, 3, 3, 3, 3, 3, 3,
+        3, 3, 3, 3, 3, 3, 3, 3, 3, 2, 0, 0, 1, 1, 1, 1, 1, 1, 3, 3, 3, 3, 3, 3, 3, 5, 5, 3, 2, 3, 1, 1, 3, 3, 1, 1, 0, 4, 3, 3,
+        5, 5
+    };
+
+    private Bytecode() {
+    }
+
+    public static String name(int opcode) {
+        return opcode < NAMES.length ? NAMES[opcode] : "opcode_" + opcode;
+    }
+
+    public static int opcode(ByteBuffer code, int pc) {
+        return code.get(pc) & 0xFF;
+    }
+
+    /** the unsigned short operand at {@code pc + 1}, eg. the constant pool index of an invoke */
+    public static int u2(ByteBuffer code, int pc) {
+        return code.getShort(pc + 1) & 0xFFFF;
+    }
+
+    /** length of the instruction at {@code pc}, including its operands */
+    public static int length(ByteBuffer code, int pc) {
+        int opcode = opcode(code, pc);
+        if (opcode >= LENGTHS.length) {
+            throw new IllegalArgumentException("invalid opcode " + opcode + " at " + pc);
+        }
+        switch (opcode) {
+            case TABLESWITCH: {
+                int base = (pc + 4) & ~3;
+                int low = code.getInt(base + 4);
+                int high = code.getInt(base + 8);
+                return base - pc + 12 + 4 * (high - low + 1);
+            }
+            case LOOKUPSWITCH: {
+                int base = (pc + 4) & ~3;
+                int pairs = code.getInt(base + 4);
+                return base - pc + 8 + 8 * pairs;
+            }
+            case WIDE:
+                // iinc has two wide operands, all others one
+                return opcode(code, pc + 1) == 0x84 ? 6 : 4;
+            default:
+                return LENGTHS[opcode];
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package prob.lems.tools;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the bytecode that two Lombok versions generate, method by method, eg. before upgrading Lombok.<br>
+ * <br>
+ * By default it compiles all cases (see {@link CompileMatrix}) with the two {@code lombok-*.jar} in the current directory,
+ * alternatively it compares two directories or jars of class files. Before comparing, every method is turned into a list of
+ * instructions with the constants resolved and the branch targets as instruction numbers, so the order of the constant pool
+ * (and whether that makes it {@code ldc} or {@code ldc_w}) does not matter. Lambda methods are renamed to their position among
+ * the lambdas of their enclosing method, so {@code lambda$doit$3} and {@code lambda$doit$0} are the same, if they are the first
+ * lambda of {@code doit} in both.<br>
+ * <br>
+ * The classes are compared in parallel on a work-stealing pool, and the differences are printed as soon as they are found,
+ * so they come in no particular order. Classes with identical bytes are not even parsed.<br>
+ * <br>
+ * Usage: {@code BytecodeDiff [--threads n] [--no-cache] [--lombok old.jar --lombok new.jar | <old dir or jar> <new dir or jar>]},
+ * exits with 1 if anything is different, run it with {@code make bytecode_diff}.
+ */
+public class BytecodeDiff {
+
+    private static final Pattern LAMBDA = Pattern.compile("lambda\\$([^$.(\\s]+)\\$(\\d+)");
+    // in the output, per changed method
+    private static final int MAX_LINES = 40;
+
+    /** the differences of one class, no lines if it is the same in both */
+    static final class ClassDiff {
+        final String className;
+        final boolean identical;
+        final List<String> lines = new ArrayList<>();
+
+        ClassDiff(String className, boolean identical) {
+            this.className = className;
+            this.identical = identical;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> jars = new ArrayList<>();
+        List<Path> roots = new ArrayList<>();
+        boolean useCache = true;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--lombok")) {
+                jars.add(Paths.get(args[++i]));
+            } else if (args[i].equals("--no-cache")) {
+                useCache = false;
+            } else {
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        String oldLabel;
+        String newLabel;
+        Map<String, Supplier<ByteBuffer>> oldClasses;
+        Map<String, Supplier<ByteBuffer>> newClasses;
+        if (!roots.isEmpty()) {
+            if (roots.size() != 2 || !jars.isEmpty()) {
+                throw new IllegalArgumentException("expected two directories or jars, or two --lombok jars");
+            }
+            oldLabel = roots.get(0).toString();
+            newLabel = roots.get(1).toString();
+            oldClasses = classes(roots.get(0));
+            newClasses = classes(roots.get(1));
+        } else {
+            if (jars.isEmpty()) {
+                jars = CompileMatrix.defaultJars();
+            }
+            if (jars.size() != 2) {
+                throw new IllegalArgumentException("expected two lombok jars, found " + jars);
+            }
+            List<CompileMatrix.Case> cases = CompileMatrix.cases(CompileMatrix.defaultCases());
+            try (BuildCache cache = useCache ? new BuildCache(CompileMatrix.DEFAULT_CACHE, CompileMatrix.DEFAULT_CACHE_MEGABYTES << 20) : null) {
+                List<LombokCompiler> compilers = CompileMatrix.compilers(jars);
+                oldLabel = compilers.get(0).version();
+                newLabel = compilers.get(1).version();
+                oldClasses = compile(cases, compilers.get(0), cache, pool);
+                newClasses = compile(cases, compilers.get(1), cache, pool);
+                for (LombokCompiler compiler : compilers) {
+                    compiler.close();
+                }
+            }
+        }
+        long compared = System.nanoTime();
+        int different = diff(oldClasses, newClasses, oldLabel, newLabel, pool, System.out);
+        long end = System.nanoTime();
+        System.out.printf(Locale.ROOT, "(%d ms, %d ms of it comparing, %d threads)%n", (end - start) / 1_000_000, (end - compared) / 1_000_000,
+                threads);
+        pool.shutdown();
+        if (different > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static Map<String, Supplier<ByteBuffer>> classes(Path root) throws IOException {
+        Map<String, Supplier<ByteBuffer>> classes = new HashMap<>();
+        for (ClassFiles.Entry entry : ClassFiles.list(Collections.singletonList(root))) {
+            classes.put(entry.className(), entry::read);
+        }
+        return classes;
+    }
+
+    /** the classes of all cases that compile with {@code compiler}, each case is a task of {@code pool} */
+    private static Map<String, Supplier<ByteBuffer>> compile(List<CompileMatrix.Case> cases, LombokCompiler compiler, BuildCache cache,
+            ForkJoinPool pool) throws Exception {
+        Map<String, Supplier<ByteBuffer>> classes = new ConcurrentHashMap<>();
+        AtomicInteger failed = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (CompileMatrix.Case c : cases) {
+            futures.add(pool.submit(() -> {
+                List<Path> sources = Collections.singletonList(c.source);
+                List<String> options = Collections.singletonList("-nowarn");
+                LombokCompiler.Result result = cache != null ? cache.compile(compiler, sources, options) : compiler.compile(sources, options);
+                if (!result.success()) {
+                    failed.incrementAndGet();
+                }
+                // the helpers are compiled with every case that uses them, the same bytes each time
+                result.classes().forEach((name, bytes) -> classes.putIfAbsent(name, () -> ByteBuffer.wrap(bytes)));
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        if (failed.get() > 0) {
+            System.out.printf(Locale.ROOT, "%d of %d cases do not compile with lombok %s, so their classes are missing%n", failed.get(),
+                    cases.size(), compiler.version());
+        }
+        return classes;
+    }
+
+    /** compares the classes on {@code pool}, prints the differences as they come in and a summary, returns the number of different classes */
+    static int diff(Map<String, Supplier<ByteBuffer>> oldClasses, Map<String, Supplier<ByteBuffer>> newClasses, String oldLabel,
+            String newLabel, ForkJoinPool pool, PrintStream out) throws Exception {
+        Set<String> names = new TreeSet<>(oldClasses.keySet());
+        names.addAll(newClasses.keySet());
+        CompletionService<ClassDiff> results = new ExecutorCompletionService<>(pool);
+        for (String name : names) {
+            Supplier<ByteBuffer> oldClass = oldClasses.get(name);
+            Supplier<ByteBuffer> newClass = newClasses.get(name);
+            results.submit(() -> diff(name, oldClass, newClass, oldLabel, newLabel));
+        }
+        int identical = 0;
+        int equivalent = 0;
+        int different = 0;
+        for (int i = 0; i < names.size(); i++) {
+            ClassDiff result = results.take().get();
+            if (result.identical) {
+                identical++;
+            } else if (result.lines.isEmpty()) {
+                equivalent++;
+            } else {
+                different++;
+                StringBuilder text = new StringBuilder(result.className).append(System.lineSeparator());
+                for (String line : result.lines) {
+                    text.append(line).append(System.lineSeparator());
+                }
+                out.print(text);
+                out.flush();
+            }
+        }
+        out.printf(Locale.ROOT, "%d classes: %d identical, %d the same after normalizing, %d different (%s -> %s)%n", names.size(), identical,
+                equivalent, different, oldLabel, newLabel);
+        return different;
+    }
+
+    static ClassDiff diff(String name, Supplier<ByteBuffer> oldClass, Supplier<ByteBuffer> newClass, String oldLabel, String newLabel) {
+        if (oldClass == null || newClass == null) {
+            ClassDiff result = new ClassDiff(name, false);
+            result.lines.add("  only in " + (oldClass == null ? newLabel : oldLabel));
+            return result;
+        }
+        ByteBuffer oldBytes = oldClass.get();
+        ByteBuffer newBytes = newClass.get();
+        if (oldBytes.equals(newBytes)) {
+            return new ClassDiff(name, true);
+        }
+        ClassDiff result = new ClassDiff(name, false);
+        Map<String, List<String>> oldMethods = normalize(ClassFile.parse(oldBytes));
+        Map<String, List<String>> newMethods = normalize(ClassFile.parse(newBytes));
+        Set<String> keys = new TreeSet<>(oldMethods.keySet());
+        keys.addAll(newMethods.keySet());
+        for (String key : keys) {
+            List<String> before = oldMethods.get(key);
+            List<String> after = newMethods.get(key);
+            if (before == null || after == null) {
+                result.lines.add("  only in " + (before == null ? newLabel : oldLabel) + ": " + key);
+            } else if (!before.equals(after)) {
+                result.lines.add("  " + key);
+                List<String> changes = changes(before, after);
+                for (String change : changes.subList(0, Math.min(changes.size(), MAX_LINES))) {
+                    result.lines.add("    " + change);
+                }
+                if (changes.size() > MAX_LINES) {
+                    result.lines.add("    ... " + (changes.size() - MAX_LINES) + " more");
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The methods of a class by name and descriptor, each as a list of lines, plus the class itself as {@code <class>}:
+     * its flags, super class, interfaces, fields and attributes, eg. {@code InnerClasses} or {@code NestMembers}.
+     */
+    static Map<String, List<String>> normalize(ClassFile classFile) {
+        Map<String, String> lambdas = lambdaNames(classFile);
+        Map<String, List<String>> methods = new LinkedHashMap<>();
+        List<String> header = new ArrayList<>();
+        header.add(String.format("flags 0x%04x extends %s", classFile.accessFlags(), classFile.superName()));
+        for (String name : classFile.interfaces()) {
+            header.add("implements " + name);
+        }
+        for (ClassFile.Field field : classFile.fields()) {
+            header.add(String.format("field %s flags 0x%04x", field, field.accessFlags()));
+            for (String attribute : attributes(classFile, field.start() + 6)) {
+                header.add("field " + field.name() + " " + attribute);
+            }
+        }
+        header.addAll(attributes(classFile, classFile.attributeTable()));
+        for (int i = 0; i < header.size(); i++) {
+            header.set(i, renameLambdas(header.get(i), lambdas));
+        }
+        methods.put("<class>", header);
+        for (ClassFile.Method method : classFile.methods()) {
+            List<String> lines = new ArrayList<>();
+            lines.add(String.format("flags 0x%04x", method.accessFlags()));
+            lines.addAll(attributes(classFile, method.start() + 6));
+            if (method.hasCode()) {
+                instructions(classFile, method, lines);
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                lines.set(i, renameLambdas(lines.get(i), lambdas));
+            }
+            methods.put(renameLambdas(method.name(), lambdas) + method.descriptor(), lines);
+        }
+        return methods;
+    }
+
+    /**
+     * The attributes of a class, field or method, from their count at {@code offset}, with the constants resolved.
+     * Code and BootstrapMethods are compared by their instructions, other attributes that are not known here only by their length.
+     */
+    private static List<String> attributes(ClassFile classFile, int offset) {
+        ByteBuffer buffer = classFile.buffer();
+        List<String> lines = new ArrayList<>();
+        int pos = offset + 2;
+        for (int a = 0; a < (buffer.getShort(offset) & 0xFFFF); a++) {
+            String name = classFile.utf8(buffer.getShort(pos) & 0xFFFF);
+            int length = buffer.getInt(pos + 2);
+            int data = pos + 6;
+            switch (name) {
+                case "Code": case "BootstrapMethods":
+                    break;
+                case "SourceFile": case "Signature":
+                    lines.add(name + " " + classFile.utf8(buffer.getShort(data) & 0xFFFF));
+                    break;
+                case "ConstantValue":
+                    lines.add(name + " " + constant(classFile, buffer.getShort(data) & 0xFFFF));
+                    break;
+                case "NestHost":
+                    lines.add(name + " " + classFile.className(buffer.getShort(data) & 0xFFFF));
+                    break;
+                case "NestMembers": case "PermittedSubclasses": case "Exceptions":
+                    for (int i = 0; i < (buffer.getShort(data) & 0xFFFF); i++) {
+                        lines.add(name + " " + classFile.className(buffer.getShort(data + 2 + 2 * i) & 0xFFFF));
+                    }
+                    break;
+                case "InnerClasses":
+                    for (int i = 0; i < (buffer.getShort(data) & 0xFFFF); i++) {
+                        int entry = data + 2 + 8 * i;
+                        int outer = buffer.getShort(entry + 2) & 0xFFFF;
+                        int innerName = buffer.getShort(entry + 4) & 0xFFFF;
+                        lines.add(String.format("%s %s in %s as %s flags 0x%04x", name, classFile.className(buffer.getShort(entry) & 0xFFFF),
+                                outer == 0 ? "-" : classFile.className(outer), innerName == 0 ? "-" : classFile.utf8(innerName),
+                                buffer.getShort(entry + 6) & 0xFFFF));
+                    }
+                    break;
+                case "EnclosingMethod": {
+                    int method = buffer.getShort(data + 2) & 0xFFFF;
+                    lines.add(name + " " + classFile.className(buffer.getShort(data) & 0xFFFF) + (method == 0 ? ""
+                            : "." + classFile.utf8(classFile.ref(method, 0)) + ":" + classFile.utf8(classFile.ref(method, 1))));
+                    break;
+                }
+                default:
+                    lines.add(name + " (" + length + " bytes)");
+            }
+            pos = data + length;
+        }
+        return lines;
+    }
+
+    /** {@code lambda$doit$3} to {@code lambda$doit$#0}, if it is the lambda of {@code doit} with the lowest number */
+    private static Map<String, String> lambdaNames(ClassFile classFile) {
+        Map<String, TreeMap<Integer, String>> byEnclosing = new HashMap<>();
+        for (ClassFile.Method method : classFile.methods()) {
+            Matcher matcher = LAMBDA.matcher(method.name());
+            if (matcher.matches()) {
+                byEnclosing.computeIfAbsent(matcher.group(1), enclosing -> new TreeMap<>()).put(Integer.parseInt(matcher.group(2)), method.name());
+            }
+        }
+        Map<String, String> names = new HashMap<>();
+        for (Map.Entry<String, TreeMap<Integer, String>> enclosing : byEnclosing.entrySet()) {
+            int position = 0;
+            for (String name : enclosing.getValue().values()) {
+                names.put(name, "lambda$" + enclosing.getKey() + "$#" + position++);
+            }
+        }
+        return names;
+    }
+
+    private static String renameLambdas(String line, Map<String, String> lambdas) {
+        if (lambdas.isEmpty() || !line.contains("lambda$")) {
+            return line;
+        }
+        Matcher matcher = LAMBDA.matcher(line);
+        StringBuffer renamed = new StringBuffer();
+        while (matcher.find()) {
+            matcher.appendReplacement(renamed, Matcher.quoteReplacement(lambdas.getOrDefault(matcher.group(), matcher.group())));
+        }
+        return matcher.appendTail(renamed).toString();
+    }
+
+    private static void instructions(ClassFile classFile, ClassFile.Method method, List<String> lines) {
+        ByteBuffer code = method.code();
+        Map<Integer, Integer> labels = new HashMap<>();
+        int count = 0;
+        for (int pc = 0; pc < code.limit(); pc += Bytecode.length(code, pc)) {
+            labels.put(pc, count++);
+        }
+        labels.put(code.limit(), count);
+        for (int pc = 0; pc < code.limit(); pc += Bytecode.length(code, pc)) {
+            lines.add("L" + labels.get(pc) + ": " + instruction(classFile, code, pc, labels));
+        }
+        for (int i = 0; i < method.exceptionHandlers(); i++) {
+            int[] handler = method.exceptionHandler(i);
+            lines.add(String.format("try L%d L%d catch L%d %s", labels.get(handler[0]), labels.get(handler[1]), labels.get(handler[2]),
+                    handler[3] == 0 ? "any" : classFile.className(handler[3])));
+        }
+    }
+
+    private static String instruction(ClassFile classFile, ByteBuffer code, int pc, Map<Integer, Integer> labels) {
+        int opcode = Bytecode.opcode(code, pc);
+        String name = Bytecode.name(opcode);
+        switch (opcode) {
+            case 0x10: // bipush
+                return name + " " + code.get(pc + 1);
+            case 0x11: // sipush
+                return name + " " + code.getShort(pc + 1);
+            case 0x12: // ldc
+                return "ldc " + constant(classFile, code.get(pc + 1) & 0xFF);
+            case 0x13: // ldc_w, the same as ldc with a larger constant pool
+                return "ldc " + constant(classFile, Bytecode.u2(code, pc));
+            case 0x14: // ldc2_w
+                return name + " " + constant(classFile, Bytecode.u2(code, pc));
+            case 0x15: case 0x16: case 0x17: case 0x18: case 0x19: // loads
+            case 0x36: case 0x37: case 0x38: case 0x39: case 0x3A: // stores
+            case 0xA9: // ret
+            case 0xBC: // newarray
+                return name + " " + (code.get(pc + 1) & 0xFF);
+            case 0x84: // iinc
+                return name + " " + (code.get(pc + 1) & 0xFF) + " " + code.get(pc + 2);
+            case 0xC8: case 0xC9: // goto_w, jsr_w
+                return name + " L" + labels.get(pc + code.getInt(pc + 1));
+            case Bytecode.TABLESWITCH: {
+                int base = (pc + 4) & ~3;
+                int low = code.getInt(base + 4);
+                int high = code.getInt(base + 8);
+                StringBuilder text = new StringBuilder(name).append(" default L").append(labels.get(pc + code.getInt(base)));
+                for (int i = 0; i <= high - low; i++) {
+                    text.append(", ").append(low + i).append(" L").append(labels.get(pc + code.getInt(base + 12 + 4 * i)));
+                }
+                return text.toString();
+            }
+            case Bytecode.LOOKUPSWITCH: {
+                int base = (pc + 4) & ~3;
+                int pairs = code.getInt(base + 4);
+                StringBuilder text = new StringBuilder(name).append(" default L").append(labels.get(pc + code.getInt(base)));
+                for (int i = 0; i < pairs; i++) {
+                    text.append(", ").append(code.getInt(base + 8 + 8 * i)).append(" L").append(labels.get(pc + code.getInt(base + 12 + 8 * i)));
+                }
+                return text.toString();
+            }
+            case 0xB2: case 0xB3: case 0xB4: case 0xB5: // field access
+            case Bytecode.INVOKEVIRTUAL: case Bytecode.INVOKESPECIAL: case Bytecode.INVOKESTATIC: case Bytecode.INVOKEINTERFACE:
+                return name + " " + classFile.memberRef(Bytecode.u2(code, pc));
+            case Bytecode.INVOKEDYNAMIC: {
+                int index = Bytecode.u2(code, pc);
+                int bootstrap = classFile.ref(index, 0);
+                int nameAndType = classFile.ref(index, 1);
+                StringBuilder text = new StringBuilder(name).append(' ').append(classFile.utf8(classFile.ref(nameAndType, 0)))
+                        .append(classFile.utf8(classFile.ref(nameAndType, 1))).append(" ")
+                        .append(classFile.methodHandle(classFile.bootstrapMethod(bootstrap)));
+                for (int argument : classFile.bootstrapArguments(bootstrap)) {
+                    text.append(", ").append(constant(classFile, argument));
+                }
+                return text.toString();
+            }
+            case 0xBB: case 0xBD: case 0xC0: case 0xC1: // new, anewarray, checkcast, instanceof
+                return name + " " + classFile.className(Bytecode.u2(code, pc));
+            case 0xC5: // multianewarray
+                return name + " " + classFile.className(Bytecode.u2(code, pc)) + " " + (code.get(pc + 3) & 0xFF);
+            case Bytecode.WIDE: {
+                int wide = Bytecode.opcode(code, pc + 1);
+                String text = "wide " + Bytecode.name(wide) + " " + Bytecode.u2(code, pc + 1);
+                return wide == 0x84 ? text + " " + code.getShort(pc + 4) : text;
+            }
+            default:
+                if (opcode >= 0x99 && opcode <= 0xA8 || opcode == 0xC6 || opcode == 0xC7) { // if*, goto, jsr
+                    return name + " L" + labels.get(pc + code.getShort(pc + 1));
+                }
+                return name;
+        }
+    }
+
+    /** a constant, strings quoted, so they cannot be mistaken for class names */
+    private static String constant(ClassFile classFile, int index) {
+        Object value = classFile.constant(index);
+        switch (classFile.tag(index)) {
+            case ClassFile.STRING:
+                return '"' + value.toString().replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + '"';
+            case ClassFile.CLASS:
+                return "class " + value;
+            case ClassFile.LONG:
+                return value + "L";
+            case ClassFile.FLOAT:
+                return value + "F";
+            case ClassFile.DOUBLE:
+                return value + "D";
+            default:
+                return value.toString();
+        }
+    }
+
+    /** the lines removed from {@code before} and added in {@code after}, by their longest common subsequence */
+    static List<String> changes(List<String> before, List<String> after) {
+        int n = before.size();
+        int m = after.size();
+        List<String> changes = new ArrayList<>();
+        if ((long) n * m > 4_000_000) {
+            before.forEach(line -> changes.add("- " + line));
+            after.forEach(line -> changes.add("+ " + line));
+            return changes;
+        }
+        int[][] common = new int[n + 1][m + 1];
+        for (int i = n - 1; i >= 0; i--) {
+            for (int j = m - 1; j >= 0; j--) {
+                common[i][j] = before.get(i).equals(after.get(j)) ? common[i + 1][j + 1] + 1 : Math.max(common[i + 1][j], common[i][j + 1]);
+            }
+        }
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && j < m && before.get(i).equals(after.get(j))) {
+                i++;
+                j++;
+            } else if (i < n && (j == m || common[i + 1][j] >= common[i][j + 1])) {
+                changes.add("- " + before.get(i++));
+            } else {
+                changes.add("+ " + after.get(j++));
+            }
+        }
+        return changes;
+    }
+}
@@ -0,0 +1,471 @@
+package prob.lems.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.instrument.ClassFileTransformer;
+import java.lang.instrument.Instrumentation;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@code java.lang.instrument} agent that counts the calls of extension methods at run time, by call site: Lombok turns them into
+ * plain static calls, so they do not show up anywhere else. What it records is described in {@link CallSiteMetrics}.<br>
+ * <br>
+ * Every {@code invokestatic} of a method of the configured classes is a site. It is pointed to a new private method of the calling class,
+ * one per site, which calls {@link CallSiteMetrics#enter(int)} with the id of the site, the extension method and
+ * {@link CallSiteMetrics#exit(int, long)}. That method is straight-line code, so it needs no stack map frames, and the instruction of the
+ * site keeps its length, so the code around it, its offsets and frames stay as they are. The extension methods themselves are not changed:
+ * a recursive call is a site of its own, and each call is counted once, at its site. A call that throws is counted, but not timed.
+ * Interfaces are not instrumented, they have no private methods before Java 9, and neither are the classes of the boot class path.<br>
+ * <br>
+ * Options, separated by commas:
+ * {@code classes=a;b} the binary names of the classes, by default the extension classes of the cases,
+ * {@code sample=n} times every n-th call of a site on average (default 1024),
+ * {@code dump=file} writes the report to that file every {@code interval=s} seconds (default 60) and at exit,
+ * {@code jmx=false} does not register the MXBean {@value CallSiteMetrics#OBJECT_NAME}.<br>
+ * <br>
+ * Usage: {@code java -javaagent:call-site-agent.jar=dump=calls.txt ...}, {@code make agent} builds it and measures its overhead
+ * on the call sites of {@code CallSiteBench}.
+ */
+public class CallSiteAgent {
+
+    private static final List<String> DEFAULT_CLASSES = Arrays.asList("prob.lems.ProblemWithExistingMethodInSubclass$ObjectExtensions",
+            "prob.lems.ProblemWithOverloadedMethod$Extensions1", "prob.lems.ProblemWithOverloadedMethod$Extensions2",
+            "prob.lems.ProblemWithJavacButNotEclipse3$Extensions");
+    private static final String METRICS = CallSiteMetrics.class.getName().replace('.', '/');
+    private static final String SITE = "$site";
+    private static final String PRIMITIVES = "BCDFIJSZ";
+    private static final String[] PRIMITIVE_NAMES = { "byte", "char", "double", "float", "int", "long", "short", "boolean" };
+
+    // opcodes of the generated code
+    private static final int SIPUSH = 0x11;
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int FLOAD = 0x17;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int LSTORE = 0x37;
+    private static final int IRETURN = 0xAC;
+    private static final int INVOKESTATIC = 0xB8;
+
+    public static void premain(String arguments, Instrumentation instrumentation) throws Exception {
+        Set<String> classes = new HashSet<>();
+        Path dump = null;
+        long interval = 60;
+        boolean jmx = true;
+        for (String option : arguments == null || arguments.isEmpty() ? new String[0] : arguments.split(",")) {
+            String[] keyValue = option.split("=", 2);
+            String value = keyValue.length > 1 ? keyValue[1] : "";
+            switch (keyValue[0]) {
+                case "classes":
+                    for (String name : value.split(";")) {
+                        classes.add(name.replace('.', '/'));
+                    }
+                    break;
+                case "sample":
+                    CallSiteMetrics.sampleEvery(Integer.parseInt(value));
+                    break;
+                case "dump":
+                    dump = Paths.get(value);
+                    break;
+                case "interval":
+                    interval = Long.parseLong(value);
+                    break;
+                case "jmx":
+                    jmx = Boolean.parseBoolean(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown option " + option + " of CallSiteAgent");
+            }
+        }
+        if (classes.isEmpty()) {
+            for (String name : DEFAULT_CLASSES) {
+                classes.add(name.replace('.', '/'));
+            }
+        }
+
+        instrumentation.addTransformer(new ClassFileTransformer() {
+            @Override
+            public byte[] transform(ClassLoader loader, String className, Class<?> redefined, ProtectionDomain domain, byte[] bytes) {
+                if (className == null || redefined != null || loader == null) {
+                    return null;
+                }
+                try {
+                    return instrument(bytes, classes);
+                } catch (RuntimeException e) {
+                    // the JVM drops exceptions of a transformer silently
+                    System.err.println("CallSiteAgent: cannot instrument " + className + ", " + e);
+                    return null;
+                }
+            }
+        });
+        if (jmx) {
+            CallSiteMetrics.registerMXBean();
+        }
+        if (dump != null) {
+            Path file = dump;
+            ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "CallSiteAgent dump");
+                thread.setDaemon(true);
+                return thread;
+            });
+            dumper.scheduleWithFixedDelay(() -> dump(file), interval, interval, TimeUnit.SECONDS);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> dump(file), "CallSiteAgent dump at exit"));
+        }
+    }
+
+    private static void dump(Path file) {
+        try {
+            CallSiteMetrics.dump(file);
+        } catch (IOException e) {
+            System.err.println("CallSiteAgent: cannot write " + file + ", " + e);
+        }
+    }
+
+    /** the class with its calls of methods of {@code owners} counted, {@code null} if it has none */
+    static byte[] instrument(byte[] bytes, Set<String> owners) {
+        ClassFile classFile = ClassFile.parse(bytes);
+        if ((classFile.accessFlags() & ClassFile.ACC_INTERFACE) != 0) {
+            // the new methods would have to be private, which interfaces allow from Java 9 on only
+            return null;
+        }
+        boolean[] targets = new boolean[classFile.constantCount()];
+        boolean any = false;
+        for (int i = 1; i < targets.length; i++) {
+            int tag = classFile.tag(i);
+            if ((tag == ClassFile.METHODREF || tag == ClassFile.INTERFACE_METHODREF) && owners.contains(classFile.className(classFile.ref(i, 0)))) {
+                targets[i] = any = true;
+            }
+        }
+        if (!any) {
+            return null;
+        }
+
+        // the position of the operand of each site in the class file, and the method it calls
+        List<Integer> operands = new ArrayList<>();
+        List<Integer> calls = new ArrayList<>();
+        List<String> callers = new ArrayList<>();
+        String className = classFile.name().replace('/', '.');
+        String sourceFile = sourceFile(classFile);
+        int codeName = 0;
+        for (ClassFile.Method method : classFile.methods()) {
+            if (!method.hasCode()) {
+                continue;
+            }
+            codeName = classFile.buffer().getShort(method.codeOffset() - 6) & 0xFFFF;
+            ByteBuffer code = method.code();
+            for (int pc = 0; pc < code.limit(); pc += Bytecode.length(code, pc)) {
+                if (Bytecode.opcode(code, pc) == Bytecode.INVOKESTATIC && targets[Bytecode.u2(code, pc)]) {
+                    operands.add(method.codeOffset() + 8 + pc + 1);
+                    calls.add(Bytecode.u2(code, pc));
+                    int line = line(classFile, method, pc);
+                    callers.add(className + "." + method.name() + (sourceFile == null ? " @" + pc
+                            : "(" + sourceFile + (line < 0 ? "" : ":" + line) + ")"));
+                }
+            }
+        }
+        if (operands.isEmpty() || classFile.methods().size() + operands.size() > 0xFFFF) {
+            return null;
+        }
+
+        ConstantPool pool = new ConstantPool(classFile.constantCount());
+        int metrics = pool.classRef(METRICS);
+        int enter = pool.methodRef(metrics, "enter", "(I)J");
+        int exit = pool.methodRef(metrics, "exit", "(IJ)V");
+        int[] ids = new int[operands.size()];
+        int[] names = new int[operands.size()];
+        int[] bridges = new int[operands.size()];
+        byte[] patched = bytes.clone();
+        for (int i = 0; i < operands.size(); i++) {
+            ClassFile.MemberRef target = classFile.memberRef(calls.get(i));
+            ids[i] = CallSiteMetrics.register(target.owner.replace('/', '.') + "." + target.name + parameters(target.descriptor), callers.get(i));
+            if (ids[i] < 0) {
+                return null;
+            }
+            names[i] = pool.utf8(target.name + SITE + i);
+            bridges[i] = pool.methodRef(classFile.thisClassIndex(), names[i], classFile.ref(classFile.ref(calls.get(i), 1), 1));
+            patched[operands.get(i)] = (byte) (bridges[i] >> 8);
+            patched[operands.get(i) + 1] = (byte) bridges[i];
+        }
+        if (pool.count() > 0xFFFF) {
+            return null;
+        }
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(bytes.length + 64 * operands.size());
+        DataOutputStream out = new DataOutputStream(result);
+        try {
+            out.write(patched, 0, 8);
+            out.writeShort(pool.count());
+            out.write(patched, 10, classFile.constantPoolEnd() - 10);
+            pool.writeTo(out);
+            out.write(patched, classFile.constantPoolEnd(), classFile.methodTable() - classFile.constantPoolEnd());
+            out.writeShort(classFile.methods().size() + operands.size());
+            out.write(patched, classFile.methodTable() + 2, classFile.attributeTable() - classFile.methodTable() - 2);
+            for (int i = 0; i < operands.size(); i++) {
+                int descriptor = classFile.ref(classFile.ref(calls.get(i), 1), 1);
+                writeSite(out, codeName, names[i], descriptor, classFile.utf8(descriptor), ids[i], enter, exit, calls.get(i));
+            }
+            out.write(patched, classFile.attributeTable(), bytes.length - classFile.attributeTable());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return result.toByteArray();
+    }
+
+    /** the method of a site, which counts the call around the call of the extension method */
+    private static void writeSite(DataOutputStream out, int codeName, int name, int descriptorIndex, String descriptor, int id, int enter,
+            int exit, int target) throws IOException {
+        List<Character> parameters = parameterTypes(descriptor);
+        char returnType = descriptor.charAt(descriptor.indexOf(')') + 1);
+        int slots = 0;
+        for (char type : parameters) {
+            slots += size(type);
+        }
+
+        ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+        DataOutputStream code = new DataOutputStream(codeBytes);
+        code.writeByte(SIPUSH);
+        code.writeShort(id);
+        code.writeByte(INVOKESTATIC);
+        code.writeShort(enter);
+        code.writeByte(LSTORE);
+        code.writeByte(slots);
+        int slot = 0;
+        for (char type : parameters) {
+            code.writeByte(loadOpcode(type));
+            code.writeByte(slot);
+            slot += size(type);
+        }
+        code.writeByte(INVOKESTATIC);
+        code.writeShort(target);
+        code.writeByte(SIPUSH);
+        code.writeShort(id);
+        code.writeByte(LLOAD);
+        code.writeByte(slots);
+        code.writeByte(INVOKESTATIC);
+        code.writeShort(exit);
+        code.writeByte(returnOpcode(returnType));
+        byte[] instructions = codeBytes.toByteArray();
+
+        out.writeShort(ClassFile.ACC_PRIVATE | ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC);
+        out.writeShort(name);
+        out.writeShort(descriptorIndex);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + instructions.length);
+        // the result and the arguments of exit() are on the stack at the same time
+        out.writeShort(Math.max(Math.max(2, slots), size(returnType) + 3));
+        out.writeShort(slots + 2);
+        out.writeInt(instructions.length);
+        out.write(instructions);
+        out.writeShort(0); // no exception handlers
+        out.writeShort(0); // no attributes
+    }
+
+    /** the SourceFile attribute of the class, {@code null} without one */
+    private static String sourceFile(ClassFile classFile) {
+        ByteBuffer buffer = classFile.buffer();
+        int pos = classFile.attributeTable() + 2;
+        for (int a = 0; a < (buffer.getShort(classFile.attributeTable()) & 0xFFFF); a++) {
+            if (classFile.utf8Equals(buffer.getShort(pos) & 0xFFFF, "SourceFile")) {
+                return classFile.utf8(buffer.getShort(pos + 6) & 0xFFFF);
+            }
+            pos += 6 + buffer.getInt(pos + 2);
+        }
+        return null;
+    }
+
+    /** the source line of {@code pc} from the LineNumberTable of the method, -1 without one */
+    private static int line(ClassFile classFile, ClassFile.Method method, int pc) {
+        ByteBuffer buffer = classFile.buffer();
+        int pos = method.codeOffset() + 8 + buffer.getInt(method.codeOffset() + 4);
+        pos += 2 + 8 * (buffer.getShort(pos) & 0xFFFF);
+        int attributes = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        int line = -1;
+        int start = -1;
+        for (int a = 0; a < attributes; a++) {
+            if (classFile.utf8Equals(buffer.getShort(pos) & 0xFFFF, "LineNumberTable")) {
+                for (int i = 0, entries = buffer.getShort(pos + 6) & 0xFFFF; i < entries; i++) {
+                    int entryStart = buffer.getShort(pos + 8 + 4 * i) & 0xFFFF;
+                    if (entryStart <= pc && entryStart > start) {
+                        start = entryStart;
+                        line = buffer.getShort(pos + 10 + 4 * i) & 0xFFFF;
+                    }
+                }
+            }
+            pos += 6 + buffer.getInt(pos + 2);
+        }
+        return line;
+    }
+
+    /** the first character of the type of each parameter, eg. {@code [J, Ljava/lang/String;} as {@code L, L} */
+    private static List<Character> parameterTypes(String descriptor) {
+        List<Character> types = new ArrayList<>();
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char type = descriptor.charAt(i);
+            while (descriptor.charAt(i) == '[') {
+                i++;
+            }
+            if (descriptor.charAt(i) == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+            types.add(type == '[' ? 'L' : type);
+            i++;
+        }
+        return types;
+    }
+
+    /** the simple names of the parameter types, eg. {@code (Stream, Function)} */
+    private static String parameters(String descriptor) {
+        StringBuilder result = new StringBuilder("(");
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            int dimensions = 0;
+            while (descriptor.charAt(i) == '[') {
+                dimensions++;
+                i++;
+            }
+            String type;
+            if (descriptor.charAt(i) == 'L') {
+                int end = descriptor.indexOf(';', i);
+                String name = descriptor.substring(i + 1, end);
+                type = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('$')) + 1);
+                i = end;
+            } else {
+                type = PRIMITIVE_NAMES[PRIMITIVES.indexOf(descriptor.charAt(i))];
+            }
+            result.append(result.length() > 1 ? ", " : "").append(type);
+            for (int d = 0; d < dimensions; d++) {
+                result.append("[]");
+            }
+            i++;
+        }
+        return result.append(')').toString();
+    }
+
+    private static int size(char type) {
+        return type == 'V' ? 0 : type == 'J' || type == 'D' ? 2 : 1;
+    }
+
+    private static int loadOpcode(char type) {
+        switch (type) {
+            case 'J':
+                return LLOAD;
+            case 'F':
+                return FLOAD;
+            case 'D':
+                return DLOAD;
+            case 'L':
+                return ALOAD;
+            default:
+                return ILOAD;
+        }
+    }
+
+    /** ireturn, lreturn, freturn, dreturn, areturn or return */
+    private static int returnOpcode(char type) {
+        switch (type) {
+            case 'J':
+                return IRETURN + 1;
+            case 'F':
+                return IRETURN + 2;
+            case 'D':
+                return IRETURN + 3;
+            case 'L': case '[':
+                return IRETURN + 4;
+            case 'V':
+                return IRETURN + 5;
+            default:
+                return IRETURN;
+        }
+    }
+
+    /** the entries that are added to the constant pool of a class */
+    static final class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> utf8s = new HashMap<>();
+        private int count;
+
+        ConstantPool(int existing) {
+            count = existing;
+        }
+
+        /** the count of the whole constant pool, as in the class file */
+        int count() {
+            return count;
+        }
+
+        int utf8(String value) {
+            Integer existing = utf8s.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            return add(() -> {
+                out.writeByte(ClassFile.UTF8);
+                out.writeUTF(value);
+            }, value);
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return add(() -> {
+                out.writeByte(ClassFile.CLASS);
+                out.writeShort(name);
+            }, null);
+        }
+
+        int methodRef(int owner, String name, String descriptor) {
+            return methodRef(owner, utf8(name), utf8(descriptor));
+        }
+
+        int methodRef(int owner, int name, int descriptor) {
+            int nameAndType = add(() -> {
+                out.writeByte(ClassFile.NAME_AND_TYPE);
+                out.writeShort(name);
+                out.writeShort(descriptor);
+            }, null);
+            return add(() -> {
+                out.writeByte(ClassFile.METHODREF);
+                out.writeShort(owner);
+                out.writeShort(nameAndType);
+            }, null);
+        }
+
+        void writeTo(DataOutputStream target) throws IOException {
+            bytes.writeTo(target);
+        }
+
+        private interface Entry {
+            void write() throws IOException;
+        }
+
+        private int add(Entry entry, String utf8) {
+            try {
+                entry.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            if (utf8 != null) {
+                utf8s.put(utf8, count);
+            }
+            return count++;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package prob.lems.tools;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * What {@link CallSiteAgent} records: the calls of every call site of an extension method, and for a sample of them the time of the call.<br>
+ * <br>
+ * Every thread counts the calls of each site in counters of its own, found with a {@link ThreadLocal}, with a plain increment:
+ * no lock, no atomic instruction and no cache line that threads share, so no call is lost, also if a site runs in many threads at once
+ * (a {@link LongAdder} per site took three times the budget of 5 ns per call with its compare-and-set, a plain counter per site that all
+ * threads share lost a good part of the calls of a site that ran in a parallel stream, and made its cache line bounce between the cores).
+ * The counters of a thread are summed up when a report is made, the ones of running threads are read without synchronization,
+ * so they may lag a little behind, but they are never lost: those of threads that have ended are added to the counts of the sites
+ * when the next thread starts counting or the next report is made.
+ * The counter of a site also counts down to the next sampled call of the site in that thread, with a random distance,
+ * so that a loop cannot hit the same call every time. Only the sampled calls read the clock and go into the log2 histogram of their site,
+ * the report sums the sites of each method.
+ */
+public final class CallSiteMetrics {
+
+    /** the name of the MXBean, see {@link MetricsMXBean} */
+    public static final String OBJECT_NAME = "prob.lems:type=CallSiteMetrics";
+    /** the ids of the sites are pushed with {@code sipush} */
+    static final int MAX_SITES = Short.MAX_VALUE + 1;
+
+    // the sites, and the counters of each thread, in chunks: the sites are allocated when the first of their sites is registered,
+    // so before the class that calls enter() with its id is defined, the counters of a thread when it first calls one of their sites
+    private static final int CHUNK_BITS = 7;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    // a slot: the calls, and the countdown to the next sampled call
+    private static final int SLOT = 2;
+    private static final Site[][] SITES = new Site[MAX_SITES >> CHUNK_BITS][];
+    // the chunks of the counters of the current thread, see Counters
+    private static final ThreadLocal<long[][]> COUNTERS = ThreadLocal.withInitial(CallSiteMetrics::newCounters);
+    private static final Object LOCK = new Object();
+    // guarded by LOCK: the counters of the threads that may still count, and the calls that the ended threads counted by site
+    private static final List<Counters> ALL_COUNTERS = new ArrayList<>();
+    private static final long[][] ENDED = new long[MAX_SITES >> CHUNK_BITS][];
+    private static int siteCount;
+    // set once by the agent, before any instrumented class is loaded
+    private static int sampleRate = 1024;
+
+    /** the attributes and operations of {@link #OBJECT_NAME} */
+    public interface MetricsMXBean {
+        /** the calls by method */
+        Map<String, Long> getCalls();
+
+        int getSampleRate();
+
+        /** the same as the dump file */
+        String getReport();
+
+        void dump(String file) throws IOException;
+    }
+
+    /** the counters of one thread, only that thread writes them */
+    private static final class Counters {
+        // weak, so that the counters do not keep an ended thread
+        final WeakReference<Thread> thread = new WeakReference<>(Thread.currentThread());
+        final long[][] chunks = new long[MAX_SITES >> CHUNK_BITS][];
+
+        boolean ended() {
+            Thread owner = thread.get();
+            return owner == null || !owner.isAlive();
+        }
+    }
+
+    /** a call of a method, eg. {@code prob.lems.X$Extensions.or(Object, Object)}, in a method, eg. {@code prob.lems.X.doit(X.java:12)} */
+    private static final class Site {
+        final String method;
+        final String caller;
+        final Histogram histogram = new Histogram();
+
+        Site(String method, String caller) {
+            this.method = method;
+            this.caller = caller;
+        }
+    }
+
+    /** the sampled calls of a site, bucket k counts the calls that took from 2^(k-1) to 2^k-1 ns */
+    private static final class Histogram {
+        final AtomicLongArray buckets = new AtomicLongArray(64);
+        final LongAdder count = new LongAdder();
+        volatile long max;
+
+        void record(long nanos) {
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos));
+            count.increment();
+            if (nanos > max) {
+                // races lose a maximum now and then, good enough for a sample
+                max = nanos;
+            }
+        }
+
+        void add(Histogram other) {
+            for (int k = 0; k < 64; k++) {
+                buckets.addAndGet(k, other.buckets.get(k));
+            }
+            count.add(other.count.sum());
+            max = Math.max(max, other.max);
+        }
+
+        /** the upper bound of the bucket that holds the given fraction of the calls, at most the maximum */
+        long percentile(double fraction) {
+            long rank = (long) Math.ceil(fraction * count.sum());
+            long seen = 0;
+            for (int k = 0; k < 64; k++) {
+                seen += buckets.get(k);
+                if (seen >= rank) {
+                    return Math.min((1L << k) - 1, max);
+                }
+            }
+            return max;
+        }
+    }
+
+    private CallSiteMetrics() {
+    }
+
+    /** called first by the method of an instrumented site, returns the start time of a sampled call, 0 for all others */
+    public static long enter(int site) {
+        long[][] chunks = COUNTERS.get();
+        long[] counters = chunks[site >>> CHUNK_BITS];
+        if (counters == null) {
+            counters = newChunk(chunks, site >>> CHUNK_BITS);
+        }
+        int slot = (site & CHUNK_MASK) * SLOT;
+        counters[slot]++;
+        if (--counters[slot + 1] > 0) {
+            return 0;
+        }
+        counters[slot + 1] = nextCountdown();
+        // nanoTime() is 0 at most once in 292 years
+        return System.nanoTime();
+    }
+
+    private static long[][] newCounters() {
+        Counters counters = new Counters();
+        synchronized (LOCK) {
+            collectEnded();
+            ALL_COUNTERS.add(counters);
+        }
+        return counters.chunks;
+    }
+
+    private static long[] newChunk(long[][] chunks, int chunk) {
+        long[] counters = new long[SLOT << CHUNK_BITS];
+        for (int slot = 0; slot < counters.length; slot += SLOT) {
+            counters[slot + 1] = nextCountdown();
+        }
+        chunks[chunk] = counters;
+        return counters;
+    }
+
+    /** adds the counts of the threads that have ended to {@link #ENDED}, and forgets their counters, called with the lock held */
+    private static void collectEnded() {
+        for (Iterator<Counters> i = ALL_COUNTERS.iterator(); i.hasNext();) {
+            Counters counters = i.next();
+            if (counters.ended()) {
+                for (int chunk = 0; chunk < ENDED.length; chunk++) {
+                    long[] calls = counters.chunks[chunk];
+                    if (calls != null && ENDED[chunk] != null) {
+                        for (int site = 0; site <= CHUNK_MASK; site++) {
+                            ENDED[chunk][site] += calls[site * SLOT];
+                        }
+                    }
+                }
+                i.remove();
+            }
+        }
+    }
+
+    /** uniform from 1 to twice the sample rate */
+    private static int nextCountdown() {
+        return 1 + ThreadLocalRandom.current().nextInt(2 * sampleRate);
+    }
+
+    /** called by the method of an instrumented site after the extension method returned, with the result of {@link #enter(int)} */
+    public static void exit(int site, long start) {
+        if (start == 0) {
+            return;
+        }
+        SITES[site >>> CHUNK_BITS][site & CHUNK_MASK].histogram.record(Math.max(System.nanoTime() - start, 0));
+    }
+
+    /** a new site to count, returns its id for {@link #enter(int)} and {@link #exit(int, long)}, or -1 if there are too many sites */
+    static int register(String method, String caller) {
+        synchronized (LOCK) {
+            int id = siteCount;
+            if (id == MAX_SITES) {
+                return -1;
+            }
+            int chunk = id >>> CHUNK_BITS;
+            if (SITES[chunk] == null) {
+                SITES[chunk] = new Site[1 << CHUNK_BITS];
+                ENDED[chunk] = new long[1 << CHUNK_BITS];
+            }
+            SITES[chunk][id & CHUNK_MASK] = new Site(method, caller);
+            siteCount++;
+            return id;
+        }
+    }
+
+    /** samples every n-th call on average */
+    static void sampleEvery(int n) {
+        sampleRate = Math.min(Math.max(n, 1), 1 << 29);
+    }
+
+    static int sampleRate() {
+        return sampleRate;
+    }
+
+    /** the sites with calls, by method, each with its calls */
+    private static Map<String, Map<Site, Long>> sites() {
+        int count;
+        long[] allCalls;
+        synchronized (LOCK) {
+            collectEnded();
+            count = siteCount;
+            allCalls = new long[count];
+            for (int id = 0; id < count; id++) {
+                allCalls[id] = ENDED[id >>> CHUNK_BITS][id & CHUNK_MASK];
+            }
+            for (Counters counters : ALL_COUNTERS) {
+                for (int id = 0; id < count; id++) {
+                    long[] calls = counters.chunks[id >>> CHUNK_BITS];
+                    if (calls != null) {
+                        allCalls[id] += calls[(id & CHUNK_MASK) * SLOT];
+                    }
+                }
+            }
+        }
+        Map<String, Map<Site, Long>> byMethod = new LinkedHashMap<>();
+        for (int id = 0; id < count; id++) {
+            long calls = allCalls[id];
+            if (calls > 0) {
+                Site site = SITES[id >>> CHUNK_BITS][id & CHUNK_MASK];
+                byMethod.computeIfAbsent(site.method, method -> new LinkedHashMap<>()).put(site, calls);
+            }
+        }
+        return byMethod;
+    }
+
+    static Map<String, Long> calls() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        sites().forEach((method, sites) -> result.put(method, sum(sites)));
+        return result;
+    }
+
+    private static long sum(Map<Site, Long> sites) {
+        long sum = 0;
+        for (long calls : sites.values()) {
+            sum += calls;
+        }
+        return sum;
+    }
+
+    /** the methods by calls, each with its sites by calls */
+    static String report() {
+        List<Map.Entry<String, Map<Site, Long>>> methods = new ArrayList<>(sites().entrySet());
+        methods.sort(Comparator.comparingLong((Map.Entry<String, Map<Site, Long>> method) -> sum(method.getValue())).reversed());
+
+        StringBuilder report = new StringBuilder(String.format(Locale.ROOT, "calls of the instrumented methods by call site, 1 in %d sampled, "
+                + "ns of the sampled calls (upper bounds of log2 buckets)%n", sampleRate));
+        report.append(String.format(Locale.ROOT, "%14s %9s %8s %8s %8s %10s%n", "calls", "sampled", "p50", "p90", "p99", "max"));
+        for (Map.Entry<String, Map<Site, Long>> method : methods) {
+            List<Map.Entry<Site, Long>> sites = new ArrayList<>(method.getValue().entrySet());
+            sites.sort(Map.Entry.<Site, Long> comparingByValue().reversed());
+            Histogram all = new Histogram();
+            for (Map.Entry<Site, Long> site : sites) {
+                all.add(site.getKey().histogram);
+            }
+            report.append(String.format(Locale.ROOT, "%14d %s %s%n", sum(method.getValue()), histogram(all), method.getKey()));
+            for (Map.Entry<Site, Long> site : sites) {
+                report.append(String.format(Locale.ROOT, "%14d %s   at %s%n", site.getValue(), histogram(site.getKey().histogram), site.getKey().caller));
+            }
+        }
+        return report.toString();
+    }
+    private static String histogram(Histogram histogram) {
+        return String.format(Locale.ROOT, "%9d %8d %8d %8d %10d", histogram.count.sum(), histogram.percentile(0.5), histogram.percentile(0.9),
+                histogram.percentile(0.99), histogram.max);
+    }
+
+    /** writes the report to a temporary file and moves it over {@code file}, so readers never see half of it */
+    static void dump(Path file) throws IOException {
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+        Files.write(temporary, report().getBytes(StandardCharsets.UTF_8));
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static void registerMXBean() throws JMException {
+        MetricsMXBean bean = new MetricsMXBean() {
+            @Override
+            public Map<String, Long> getCalls() {
+                return calls();
+            }
+
+            @Override
+            public int getSampleRate() {
+                return sampleRate();
+            }
+
+            @Override
+            public String getReport() {
+                return report();
+            }
+
+            @Override
+            public void dump(String file) throws IOException {
+                CallSiteMetrics.dump(Paths.get(file));
+            }
+        };
+        ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(OBJECT_NAME));
+    }
+}
@@ -0,0 +1,473 @@
+package prob.lems.tools;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Just enough of a class file parser for the tools in this package: the constant pool, the methods and their bytecode.<br>
+ * <br>
+ * Reads straight from a {@link ByteBuffer} (which may be memory-mapped), without loading the class.
+ * Strings of the constant pool are only decoded on access.
+ */
+public final class ClassFile {
+
+    // constant pool tags
+    public static final int UTF8 = 1;
+    public static final int INTEGER = 3;
+    public static final int FLOAT = 4;
+    public static final int LONG = 5;
+    public static final int DOUBLE = 6;
+    public static final int CLASS = 7;
+    public static final int STRING = 8;
+    public static final int FIELDREF = 9;
+    public static final int METHODREF = 10;
+    public static final int INTERFACE_METHODREF = 11;
+    public static final int NAME_AND_TYPE = 12;
+    public static final int METHOD_HANDLE = 15;
+    public static final int METHOD_TYPE = 16;
+    public static final int DYNAMIC = 17;
+    public static final int INVOKE_DYNAMIC = 18;
+    public static final int MODULE = 19;
+    public static final int PACKAGE = 20;
+
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_PROTECTED = 0x0004;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_INTERFACE = 0x0200;
+    public static final int ACC_SYNTHETIC = 0x1000;
+
+    // by reference kind of a METHOD_HANDLE
+    private static final String[] REFERENCE_KINDS = { "?", "getField", "getStatic", "putField", "putStatic", "invokeVirtual",
+        "invokeStatic", "invokeSpecial", "newInvokeSpecial", "invokeInterface" };
+
+    private final ByteBuffer buffer;
+    // offset of each constant pool entry (its tag byte), 0 for the unusable slots after longs and doubles
+    private final int[] offsets;
+    private final int accessFlags;
+    private final int thisClass;
+    private final int superClass;
+    private final int interfaces;
+    private final int constantPoolEnd;
+    private final List<Field> fields;
+    private final int methodTable;
+    private final List<Method> methods;
+    private final int attributeTable;
+    // offset of each entry of the BootstrapMethods attribute
+    private final int[] bootstrapMethods;
+
+    private ClassFile(ByteBuffer buffer) {
+        this.buffer = buffer;
+        if (buffer.getInt(0) != 0xCAFEBABE) {
+            throw new IllegalArgumentException("not a class file");
+        }
+        int count = buffer.getShort(8) & 0xFFFF;
+        offsets = new int[count];
+        int pos = 10;
+        for (int i = 1; i < count; i++) {
+            offsets[i] = pos;
+            int tag = buffer.get(pos) & 0xFF;
+            switch (tag) {
+                case UTF8:
+                    pos += 3 + (buffer.getShort(pos + 1) & 0xFFFF);
+                    break;
+                case INTEGER: case FLOAT: case FIELDREF: case METHODREF: case INTERFACE_METHODREF:
+                case NAME_AND_TYPE: case DYNAMIC: case INVOKE_DYNAMIC:
+                    pos += 5;
+                    break;
+                case LONG: case DOUBLE:
+                    pos += 9;
+                    i++;
+                    break;
+                case CLASS: case STRING: case METHOD_TYPE: case MODULE: case PACKAGE:
+                    pos += 3;
+                    break;
+                case METHOD_HANDLE:
+                    pos += 4;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown constant pool tag " + tag + " at " + pos);
+            }
+        }
+        constantPoolEnd = pos;
+        accessFlags = buffer.getShort(pos) & 0xFFFF;
+        thisClass = buffer.getShort(pos + 2) & 0xFFFF;
+        superClass = buffer.getShort(pos + 4) & 0xFFFF;
+        interfaces = pos + 6;
+        pos += 8 + 2 * (buffer.getShort(interfaces) & 0xFFFF);
+        int fieldCount = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        List<Field> parsedFields = new ArrayList<>(fieldCount);
+        for (int f = 0; f < fieldCount; f++) {
+            parsedFields.add(new Field(pos));
+            int attributes = buffer.getShort(pos + 6) & 0xFFFF;
+            pos += 8;
+            for (int a = 0; a < attributes; a++) {
+                pos += 6 + buffer.getInt(pos + 2);
+            }
+        }
+        fields = Collections.unmodifiableList(parsedFields);
+        methodTable = pos;
+        int methodCount = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        List<Method> parsed = new ArrayList<>(methodCount);
+        for (int m = 0; m < methodCount; m++) {
+            int start = pos;
+            int flags = buffer.getShort(pos) & 0xFFFF;
+            int name = buffer.getShort(pos + 2) & 0xFFFF;
+            int descriptor = buffer.getShort(pos + 4) & 0xFFFF;
+            int attributes = buffer.getShort(pos + 6) & 0xFFFF;
+            pos += 8;
+            int code = -1;
+            for (int a = 0; a < attributes; a++) {
+                int length = buffer.getInt(pos + 2);
+                if ("Code".equals(utf8(buffer.getShort(pos) & 0xFFFF))) {
+                    code = pos + 6;
+                }
+                pos += 6 + length;
+            }
+            parsed.add(new Method(start, pos, flags, name, descriptor, code));
+        }
+        methods = Collections.unmodifiableList(parsed);
+        attributeTable = pos;
+        int[] bootstraps = new int[0];
+        int attributes = buffer.getShort(pos) & 0xFFFF;
+        pos += 2;
+        for (int a = 0; a < attributes; a++) {
+            if ("BootstrapMethods".equals(utf8(buffer.getShort(pos) & 0xFFFF))) {
+                bootstraps = new int[buffer.getShort(pos + 6) & 0xFFFF];
+                int entry = pos + 8;
+                for (int b = 0; b < bootstraps.length; b++) {
+                    bootstraps[b] = entry;
+                    entry += 4 + 2 * (buffer.getShort(entry + 2) & 0xFFFF);
+                }
+            }
+            pos += 6 + buffer.getInt(pos + 2);
+        }
+        bootstrapMethods = bootstraps;
+    }
+
+    public static ClassFile parse(ByteBuffer buffer) {
+        return new ClassFile(buffer);
+    }
+
+    public static ClassFile parse(byte[] bytes) {
+        return new ClassFile(ByteBuffer.wrap(bytes));
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int accessFlags() {
+        return accessFlags;
+    }
+
+    /** internal name, eg. {@code prob/lems/JNIProblem$Extensions} */
+    public String name() {
+        return className(thisClass);
+    }
+
+    /** the CLASS entry of this class */
+    public int thisClassIndex() {
+        return thisClass;
+    }
+
+    /** internal name of the super class, {@code null} for {@code java/lang/Object} */
+    public String superName() {
+        return superClass == 0 ? null : className(superClass);
+    }
+
+    /** internal names of the directly implemented interfaces */
+    public List<String> interfaces() {
+        int count = buffer.getShort(interfaces) & 0xFFFF;
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            names.add(className(buffer.getShort(interfaces + 2 + 2 * i) & 0xFFFF));
+        }
+        return names;
+    }
+
+    public List<Field> fields() {
+        return fields;
+    }
+
+    public List<Method> methods() {
+        return methods;
+    }
+
+    /** where the constant pool ends in {@link #buffer()}, ie. where the access flags of the class are */
+    public int constantPoolEnd() {
+        return constantPoolEnd;
+    }
+
+    /** where the methods (their count) start in {@link #buffer()} */
+    public int methodTable() {
+        return methodTable;
+    }
+
+    /** where the attributes of the class (their count) start in {@link #buffer()}, which is also where the methods end */
+    public int attributeTable() {
+        return attributeTable;
+    }
+
+    public int constantCount() {
+        return offsets.length;
+    }
+
+    /** tag of a constant pool entry, 0 for the unusable slot after a long or double */
+    public int tag(int index) {
+        return offsets[index] == 0 ? 0 : buffer.get(offsets[index]) & 0xFF;
+    }
+
+    /** the n-th unsigned short after the tag of a constant pool entry, eg. the name index of a CLASS entry */
+    public int ref(int index, int n) {
+        return buffer.getShort(offsets[index] + 1 + 2 * n) & 0xFFFF;
+    }
+
+    public String utf8(int index) {
+        int pos = offsets[index];
+        int length = buffer.getShort(pos + 1) & 0xFFFF;
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(pos + 3 + i);
+        }
+        return decodeModifiedUtf8(bytes);
+    }
+
+    /** whether the UTF8 entry {@code index} equals {@code ascii}, without decoding it */
+    public boolean utf8Equals(int index, String ascii) {
+        int pos = offsets[index];
+        int length = buffer.getShort(pos + 1) & 0xFFFF;
+        if (length != ascii.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (buffer.get(pos + 3 + i) != ascii.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String className(int classIndex) {
+        return utf8(ref(classIndex, 0));
+    }
+
+    /** the value of an INTEGER, FLOAT, LONG, DOUBLE or STRING entry, for anything else a description of it */
+    public Object constant(int index) {
+        int pos = offsets[index];
+        switch (tag(index)) {
+            case INTEGER:
+                return buffer.getInt(pos + 1);
+            case FLOAT:
+                return buffer.getFloat(pos + 1);
+            case LONG:
+                return buffer.getLong(pos + 1);
+            case DOUBLE:
+                return buffer.getDouble(pos + 1);
+            case STRING:
+                return utf8(ref(index, 0));
+            case CLASS:
+                return className(index);
+            case METHOD_TYPE:
+                return utf8(ref(index, 0));
+            case METHOD_HANDLE:
+                return methodHandle(index);
+            default:
+                return "#" + tag(index);
+        }
+    }
+
+    /** a FIELDREF, METHODREF or INTERFACE_METHODREF entry */
+    public MemberRef memberRef(int index) {
+        int nameAndType = ref(index, 1);
+        return new MemberRef(className(ref(index, 0)), utf8(ref(nameAndType, 0)), utf8(ref(nameAndType, 1)));
+    }
+
+    /** a METHOD_HANDLE entry, eg. {@code REF_invokeStatic prob/lems/X.lambda$doit$0:(Ljava/lang/String;)Z} */
+    public String methodHandle(int index) {
+        int pos = offsets[index];
+        int kind = buffer.get(pos + 1) & 0xFF;
+        return "REF_" + REFERENCE_KINDS[kind] + " " + memberRef(buffer.getShort(pos + 2) & 0xFFFF);
+    }
+
+    /** the METHOD_HANDLE entry of a bootstrap method, as referenced by a DYNAMIC or INVOKE_DYNAMIC entry */
+    public int bootstrapMethod(int bootstrap) {
+        return buffer.getShort(bootstrapMethods[bootstrap]) & 0xFFFF;
+    }
+
+    /** the constant pool entries of the static arguments of a bootstrap method */
+    public int[] bootstrapArguments(int bootstrap) {
+        int pos = bootstrapMethods[bootstrap];
+        int[] arguments = new int[buffer.getShort(pos + 2) & 0xFFFF];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = buffer.getShort(pos + 4 + 2 * i) & 0xFFFF;
+        }
+        return arguments;
+    }
+
+    private static String decodeModifiedUtf8(byte[] bytes) {
+        StringBuilder result = new StringBuilder(bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                result.append((char) b);
+            } else if ((b & 0xE0) == 0xC0) {
+                result.append((char) (((b & 0x1F) << 6) | (bytes[++i] & 0x3F)));
+            } else {
+                int b2 = bytes[++i] & 0x3F;
+                int b3 = bytes[++i] & 0x3F;
+                result.append((char) (((b & 0x0F) << 12) | (b2 << 6) | b3));
+            }
+        }
+        return result.toString();
+    }
+
+    /** a reference to a field or method of some class */
+    public static final class MemberRef {
+        public final String owner;
+        public final String name;
+        public final String descriptor;
+
+        MemberRef(String owner, String name, String descriptor) {
+            this.owner = owner;
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        /** like javap, eg. {@code java/lang/String.length:()I} or {@code prob/lems/X.s:Ljava/lang/String;} */
+        @Override
+        public String toString() {
+            return owner + "." + name + ":" + descriptor;
+        }
+    }
+
+    public final class Field {
+        private final int start;
+
+        Field(int start) {
+            this.start = start;
+        }
+
+        /** where the field_info of this field starts in {@link ClassFile#buffer()}, the count of its attributes is at {@code start() + 6} */
+        public int start() {
+            return start;
+        }
+
+        public int accessFlags() {
+            return buffer.getShort(start) & 0xFFFF;
+        }
+
+        public String name() {
+            return utf8(buffer.getShort(start + 2) & 0xFFFF);
+        }
+
+        public String descriptor() {
+            return utf8(buffer.getShort(start + 4) & 0xFFFF);
+        }
+
+        @Override
+        public String toString() {
+            return name() + ":" + descriptor();
+        }
+    }
+
+    public final class Method {
+        private final int start;
+        private final int end;
+        private final int accessFlags;
+        private final int name;
+        private final int descriptor;
+        private final int code;
+
+        Method(int start, int end, int accessFlags, int name, int descriptor, int code) {
+            this.start = start;
+            this.end = end;
+            this.accessFlags = accessFlags;
+            this.name = name;
+            this.descriptor = descriptor;
+            this.code = code;
+        }
+
+        /** where the method_info of this method starts in {@link ClassFile#buffer()} */
+        public int start() {
+            return start;
+        }
+
+        /** where the method_info of this method ends in {@link ClassFile#buffer()} */
+        public int end() {
+            return end;
+        }
+
+        public int accessFlags() {
+            return accessFlags;
+        }
+
+        /** the UTF8 entry of the name */
+        public int nameIndex() {
+            return name;
+        }
+
+        /** the UTF8 entry of the descriptor */
+        public int descriptorIndex() {
+            return descriptor;
+        }
+
+        public String name() {
+            return utf8(name);
+        }
+
+        public String descriptor() {
+            return utf8(descriptor);
+        }
+
+        public boolean hasCode() {
+            return code >= 0;
+        }
+
+        /** where the content of the Code attribute starts in {@link ClassFile#buffer()}, -1 without code */
+        public int codeOffset() {
+            return code;
+        }
+
+        public int maxStack() {
+            return buffer.getShort(code) & 0xFFFF;
+        }
+
+        public int maxLocals() {
+            return buffer.getShort(code + 2) & 0xFFFF;
+        }
+
+        public int exceptionHandlers() {
+            return buffer.getShort(exceptionTable()) & 0xFFFF;
+        }
+
+        /** start pc, end pc, handler pc and the CLASS entry of the caught type (0 for any) of an exception handler */
+        public int[] exceptionHandler(int handler) {
+            int pos = exceptionTable() + 2 + 8 * handler;
+            return new int[] { buffer.getShort(pos) & 0xFFFF, buffer.getShort(pos + 2) & 0xFFFF, buffer.getShort(pos + 4) & 0xFFFF,
+                buffer.getShort(pos + 6) & 0xFFFF };
+        }
+
+        private int exceptionTable() {
+            return code + 8 + buffer.getInt(code + 4);
+        }
+
+        /** the bytecode of this method, positioned at pc 0 */
+        public ByteBuffer code() {
+            int length = buffer.getInt(code + 4);
+            ByteBuffer slice = buffer.duplicate();
+            slice.position(code + 8);
+            slice.limit(code + 8 + length);
+            return slice.slice();
+        }
+
+        @Override
+        public String toString() {
+            return name() + descriptor();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package prob.lems.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Finds the class files in directories and jars, for the tools in this package.<br>
+ * <br>
+ * Class files in directories are memory-mapped, class files in jars have to be inflated into a byte array.
+ * Directories can also be on other file systems, like the modules of the JDK in {@code jrt:/}, those are read into a byte array.
+ */
+public final class ClassFiles {
+
+    private ClassFiles() {
+    }
+
+    /** a class file found in a directory or jar, its content is read on demand */
+    public static final class Entry {
+        private final Path container;
+        private final String path;
+        private final Path file;
+        private final ZipFile zip;
+        private final ZipEntry zipEntry;
+
+        private Entry(Path container, String path, Path file, ZipFile zip, ZipEntry zipEntry) {
+            this.container = container;
+            this.path = path;
+            this.file = file;
+            this.zip = zip;
+            this.zipEntry = zipEntry;
+        }
+
+        /** the directory or jar this class was found in */
+        public Path container() {
+            return container;
+        }
+
+        /** path relative to the container, eg. {@code prob/lems/JNIProblem.class} */
+        public String path() {
+            return path;
+        }
+
+        /** binary name, eg. {@code prob.lems.JNIProblem$Extensions} */
+        public String className() {
+            return path.substring(0, path.length() - ".class".length()).replace('/', '.');
+        }
+
+        public ByteBuffer read() {
+            try {
+                if (file != null && file.getFileSystem() != FileSystems.getDefault()) {
+                    return ByteBuffer.wrap(Files.readAllBytes(file)); // eg. the jrt:/ file system of the JDK, which cannot map
+                }
+                if (file != null) {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                    }
+                }
+                try (InputStream in = zip.getInputStream(zipEntry)) {
+                    return ByteBuffer.wrap(readAll(in, (int) Math.max(zipEntry.getSize(), 0)));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(container + "!" + path, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return container + "!" + path;
+        }
+    }
+
+    private static byte[] readAll(InputStream in, int sizeHint) throws IOException {
+        byte[] buffer = new byte[Math.max(sizeHint, 1024)];
+        int length = 0;
+        for (int n; (n = in.read(buffer, length, buffer.length - length)) > 0;) {
+            length += n;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return length == buffer.length ? buffer : Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * All class files in the given directories and jars, skipping {@code module-info} and {@code META-INF/versions}.
+     * Jars stay open for reading the entries, as long as the JVM runs.
+     */
+    public static List<Entry> list(List<Path> roots) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (Path root : roots) {
+            if (Files.isDirectory(root)) {
+                try (Stream<Path> files = Files.walk(root)) {
+                    for (Path file : files.filter(f -> f.toString().endsWith(".class")).collect(Collectors.toList())) {
+                        String path = root.relativize(file).toString().replace('\\', '/');
+                        if (isClass(path)) {
+                            entries.add(new Entry(root, path, file, null, null));
+                        }
+                    }
+                }
+            } else {
+                @SuppressWarnings("resource") // entries are read later
+                ZipFile zip = new ZipFile(root.toFile());
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                    ZipEntry zipEntry = e.nextElement();
+                    if (!zipEntry.isDirectory() && isClass(zipEntry.getName())) {
+                        entries.add(new Entry(root, zipEntry.getName(), null, zip, zipEntry));
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private static boolean isClass(String path) {
+        return path.endsWith(".class") && !path.endsWith("module-info.class") && !path.startsWith("META-INF/");
+    }
+}
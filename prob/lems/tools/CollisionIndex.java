@@ -0,0 +1,583 @@
+package prob.lems.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import com.sun.source.tree.AnnotationTree;
+import com.sun.source.tree.AssignmentTree;
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.ImportTree;
+import com.sun.source.tree.MemberSelectTree;
+import com.sun.source.tree.NewArrayTree;
+import com.sun.source.tree.Tree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TreeScanner;
+
+/**
+ * Finds the types whose methods have the same name as an extension method, before javac trips over them.<br>
+ * <br>
+ * All problem cases come down to such a name clash: {@code Qualifier.or} against {@code ObjectExtensions.or},
+ * {@code Stream.filter} against {@code Extensions1.filter}, {@code Collection.stream} against {@code Extensions.stream}.
+ * This indexes the public and protected methods of all public classes of the JDK and the given jars and directories by name,
+ * reading only their constant pools and method tables (see {@link ClassFile}), without loading them. Of a JDK module, only the packages
+ * that its {@code module-info.class} exports to everyone are reported, the others only count for the type hierarchy. The extension methods,
+ * and the types declared in the sources, come from the sources themselves, parsed and entered by javac without Lombok,
+ * as the interesting ones do not compile.<br>
+ * <br>
+ * For every class with {@code @ExtensionMethod} and every method of its extension classes this prints the types that have a
+ * method with the same name, the receivers first: the types that can be passed as the first parameter of the extension method.
+ * For those javac finds the type's own method first, and Lombok may not rewrite the call at all.<br>
+ * <br>
+ * The jars and the JDK modules are indexed in parallel, a class file per task, and the index of each is stored in
+ * {@code build/collisions/index} by its path, size and modification time (by the version of the JDK for its modules), so the next run
+ * only reads the jars that changed. Directories are always read, they are usually the small, changing part.<br>
+ * <br>
+ * Usage: {@code CollisionIndex [--threads n] [--max n] [--no-cache] [--source file.java]... [jar or directory]...},
+ * by default the sources are the cases, run it with {@code make collisions}.
+ */
+public class CollisionIndex {
+
+    private static final Path CACHE = Paths.get("build/collisions/index");
+    private static final int CACHE_VERSION = 2;
+
+    /**
+     * A class of the index, with the names and descriptors (or parameter types, for a source) of its instance methods.
+     * A class in a package that its module does not export cannot be used by the sources, so its methods never collide.
+     */
+    static final class Type {
+        final String name;
+        final String superName;
+        final List<String> interfaces;
+        final List<String> methods;
+        final boolean source;
+        final boolean exported;
+
+        Type(String name, String superName, List<String> interfaces, List<String> methods, boolean source, boolean exported) {
+            this.name = name;
+            this.superName = superName;
+            this.interfaces = interfaces;
+            this.methods = methods;
+            this.source = source;
+            this.exported = exported;
+        }
+    }
+
+    /** a class with extension methods, and the classes that use it with {@code @ExtensionMethod} */
+    static final class ExtensionClass {
+        final String name;
+        final Set<String> users = new TreeSet<>();
+        final List<Extension> methods;
+
+        ExtensionClass(String name, List<Extension> methods) {
+            this.name = name;
+            this.methods = methods;
+        }
+    }
+
+    /** an extension method, with the binary name of the erasure of its first parameter */
+    static final class Extension {
+        final String name;
+        final String receiver;
+        final String signature;
+
+        Extension(String name, String receiver, String signature) {
+            this.name = name;
+            this.receiver = receiver;
+            this.signature = signature;
+        }
+    }
+
+    private final Map<String, Type> types = new HashMap<>();
+    private final Map<String, List<Type>> byMethod = new HashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int max = 10;
+        boolean useCache = true;
+        List<Path> roots = new ArrayList<>();
+        List<Path> sources = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--max")) {
+                max = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--no-cache")) {
+                useCache = false;
+            } else if (args[i].equals("--source")) {
+                sources.add(Paths.get(args[++i]));
+            } else {
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        if (sources.isEmpty()) {
+            sources = CompileMatrix.defaultCases();
+        }
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<Path> allRoots = new ArrayList<>(jdk());
+        allRoots.addAll(roots);
+        CollisionIndex index = new CollisionIndex();
+        List<Future<List<Type>>> futures = new ArrayList<>();
+        for (Path root : allRoots) {
+            boolean cached = useCache;
+            futures.add(pool.submit(() -> load(root, cached)));
+        }
+        for (Future<List<Type>> future : futures) {
+            index.addAll(future.get());
+        }
+        long indexed = System.nanoTime();
+        Collection<ExtensionClass> extensions = index.enterSources(sources);
+        int classes = index.types.size();
+        int collisions = index.print(extensions, max, System.out);
+        long end = System.nanoTime();
+        System.out.printf(Locale.ROOT, "%n%d collisions, %d types in %d jars and directories (%d ms indexing, %d ms in total, %d threads)%n",
+                collisions, classes, allRoots.size(), (indexed - start) / 1_000_000, (end - start) / 1_000_000, threads);
+        pool.shutdown();
+    }
+
+    /** the class files of the JDK: {@code rt.jar} up to Java 8, the modules of {@code jrt:/} after that */
+    static List<Path> jdk() throws IOException {
+        Path rt = Paths.get(System.getProperty("java.home"), "lib", "rt.jar");
+        if (Files.exists(rt)) {
+            return Collections.singletonList(rt);
+        }
+        try (Stream<Path> modules = Files.list(FileSystems.getFileSystem(URI.create("jrt:/")).getPath("/modules"))) {
+            return modules.sorted().collect(Collectors.toList());
+        }
+    }
+
+    // --- the index of the class files
+
+    /** the public types of a jar or directory, from the cache if possible */
+    static List<Type> load(Path root, boolean useCache) throws IOException {
+        Path cached = useCache ? cacheFile(root) : null;
+        if (cached != null && Files.exists(cached)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cached)))) {
+                return read(in);
+            } catch (IOException e) {
+                // rebuild it
+            }
+        }
+        Set<String> exports = exports(root);
+        // a task per class file, on the pool this runs in
+        List<Type> result = ClassFiles.list(Collections.singletonList(root)).parallelStream()
+                .map(entry -> type(ClassFile.parse(entry.read()), exports))
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList());
+        if (cached != null) {
+            Files.createDirectories(cached.getParent());
+            Path temp = Files.createTempFile(cached.getParent(), "index", ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                write(result, out);
+            }
+            Files.move(temp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return result;
+    }
+
+    /**
+     * The packages that a JDK module exports to everyone, as internal names, from the Module attribute of its {@code module-info.class}.
+     * {@code null} for {@code rt.jar}, jars and directories, whose packages are all on the class path.
+     */
+    static Set<String> exports(Path root) throws IOException {
+        Path moduleInfo = root.resolve("module-info.class");
+        if (root.getFileSystem() == FileSystems.getDefault() || !Files.exists(moduleInfo)) {
+            return null;
+        }
+        ClassFile classFile = ClassFile.parse(Files.readAllBytes(moduleInfo));
+        ByteBuffer buffer = classFile.buffer();
+        Set<String> exports = new HashSet<>();
+        int pos = classFile.attributeTable() + 2;
+        for (int a = 0; a < (buffer.getShort(classFile.attributeTable()) & 0xFFFF); a++) {
+            if (classFile.utf8Equals(buffer.getShort(pos) & 0xFFFF, "Module")) {
+                // name, flags and version of the module, then the requires, 6 bytes each
+                int entry = pos + 12;
+                entry += 2 + 6 * (buffer.getShort(entry) & 0xFFFF);
+                int count = buffer.getShort(entry) & 0xFFFF;
+                entry += 2;
+                for (int e = 0; e < count; e++) {
+                    int targets = buffer.getShort(entry + 4) & 0xFFFF;
+                    // a qualified export is for some other modules of the JDK only
+                    if (targets == 0) {
+                        exports.add(classFile.utf8(classFile.ref(buffer.getShort(entry) & 0xFFFF, 0)));
+                    }
+                    entry += 6 + 2 * targets;
+                }
+            }
+            pos += 6 + buffer.getInt(pos + 2);
+        }
+        return exports;
+    }
+
+    /** the public and protected methods of a public class, {@code null} for any other class */
+    static Type type(ClassFile classFile, Set<String> exports) {
+        if ((classFile.accessFlags() & ClassFile.ACC_PUBLIC) == 0) {
+            return null;
+        }
+        List<String> methods = new ArrayList<>();
+        for (ClassFile.Method method : classFile.methods()) {
+            if ((method.accessFlags() & (ClassFile.ACC_PUBLIC | ClassFile.ACC_PROTECTED)) != 0
+                    && (method.accessFlags() & (ClassFile.ACC_STATIC | ClassFile.ACC_SYNTHETIC)) == 0) {
+                String name = method.name();
+                if (!name.startsWith("<")) { // constructors
+                    methods.add(name + method.descriptor());
+                }
+            }
+        }
+        String superName = classFile.superName();
+        String name = classFile.name();
+        boolean exported = exports == null || exports.contains(name.substring(0, Math.max(name.lastIndexOf('/'), 0)));
+        return new Type(binaryName(name), superName == null ? null : binaryName(superName),
+                classFile.interfaces().stream().map(CollisionIndex::binaryName).collect(Collectors.toList()), methods, false, exported);
+    }
+
+    private static String binaryName(String internalName) {
+        return internalName.replace('/', '.');
+    }
+
+    /** where the index of a jar or JDK module is cached, {@code null} for directories */
+    private static Path cacheFile(Path root) throws IOException {
+        String key;
+        if (root.getFileSystem() != FileSystems.getDefault()) {
+            key = root.toUri() + " " + System.getProperty("java.home") + " " + System.getProperty("java.runtime.version");
+        } else if (Files.isRegularFile(root)) {
+            key = root.toAbsolutePath() + " " + Files.size(root) + " " + Files.getLastModifiedTime(root).toMillis();
+        } else {
+            return null;
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", hash[i]));
+            }
+            return CACHE.resolve(name + ".idx");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static void write(List<Type> types, OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(CACHE_VERSION);
+        out.writeInt(types.size());
+        for (Type type : types) {
+            out.writeUTF(type.name);
+            out.writeUTF(type.superName == null ? "" : type.superName);
+            out.writeBoolean(type.exported);
+            out.writeShort(type.interfaces.size());
+            for (String name : type.interfaces) {
+                out.writeUTF(name);
+            }
+            out.writeShort(type.methods.size());
+            for (String method : type.methods) {
+                out.writeUTF(method);
+            }
+        }
+        out.flush();
+    }
+
+    static List<Type> read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != CACHE_VERSION) {
+            throw new IOException("unknown version of the index");
+        }
+        int count = in.readInt();
+        List<Type> result = new ArrayList<>(count);
+        for (int t = 0; t < count; t++) {
+            String name = in.readUTF();
+            String superName = in.readUTF();
+            boolean exported = in.readBoolean();
+            String[] interfaces = new String[in.readUnsignedShort()];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaces[i] = in.readUTF();
+            }
+            String[] methods = new String[in.readUnsignedShort()];
+            for (int i = 0; i < methods.length; i++) {
+                methods[i] = in.readUTF();
+            }
+            result.add(new Type(name, superName.isEmpty() ? null : superName, Arrays.asList(interfaces), Arrays.asList(methods), false,
+                    exported));
+        }
+        return result;
+    }
+
+    void addAll(List<Type> loaded) {
+        for (Type type : loaded) {
+            // the first one on the class path wins, like for the class loader
+            if (types.putIfAbsent(type.name, type) == null && type.exported) {
+                Set<String> names = new HashSet<>();
+                for (String method : type.methods) {
+                    String name = method.substring(0, method.indexOf('('));
+                    if (names.add(name)) {
+                        byMethod.computeIfAbsent(name, n -> new ArrayList<>()).add(type);
+                    }
+                }
+            }
+        }
+    }
+
+    // --- the sources
+
+    /** parses and enters the sources, adds their types to the index and returns the extension classes they use */
+    Collection<ExtensionClass> enterSources(List<Path> sources) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        Map<String, ExtensionClass> extensions = new LinkedHashMap<>();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, Locale.ENGLISH, StandardCharsets.UTF_8)) {
+            JavacTask task = (JavacTask) compiler.getTask(null, fileManager, new DiagnosticCollector<JavaFileObject>(),
+                    Arrays.asList("-proc:none", "-encoding", "UTF-8", "-sourcepath", "."), null,
+                    fileManager.getJavaFileObjectsFromFiles(sources.stream().map(Path::toFile).collect(Collectors.toList())));
+            Iterable<? extends CompilationUnitTree> units = task.parse();
+            // looking up the types enters them, their members are completed on access, without attributing the method bodies
+            Elements elements = task.getElements();
+            Types typeUtils = task.getTypes();
+            for (CompilationUnitTree unit : units) {
+                String packageName = unit.getPackageName() == null ? "" : unit.getPackageName().toString();
+                List<String> imports = unit.getImports().stream().filter(i -> !i.isStatic()).map(ImportTree::getQualifiedIdentifier)
+                        .map(Object::toString).collect(Collectors.toList());
+                new TreeScanner<Void, String>() {
+                    @Override
+                    public Void visitClass(ClassTree tree, String outer) {
+                        String name = outer.isEmpty() ? tree.getSimpleName().toString() : outer + "." + tree.getSimpleName();
+                        TypeElement type = elements.getTypeElement(packageName.isEmpty() ? name : packageName + "." + name);
+                        if (type != null) {
+                            addSource(type, elements);
+                            for (AnnotationTree annotation : tree.getModifiers().getAnnotations()) {
+                                if (annotation.getAnnotationType().toString().endsWith("ExtensionMethod")) {
+                                    for (String extensionClass : classLiterals(annotation)) {
+                                        TypeElement resolved = resolve(extensionClass, packageName, imports, elements);
+                                        if (resolved == null) {
+                                            System.out.println("cannot find " + extensionClass + " of " + type);
+                                        } else {
+                                            extensions.computeIfAbsent(elements.getBinaryName(resolved).toString(),
+                                                    n -> new ExtensionClass(n, extensions(resolved, elements, typeUtils)))
+                                                    .users.add(elements.getBinaryName(type).toString());
+                                        }
+                                    }
+                                }
+                            }
+                        }
+                        return super.visitClass(tree, name);
+                    }
+                }.scan(unit, "");
+            }
+        }
+        return extensions.values();
+    }
+
+    /** a type of the sources, it replaces a class file of the same name, which may be older */
+    private void addSource(TypeElement type, Elements elements) {
+        List<String> methods = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(type.getEnclosedElements())) {
+            if (!method.getModifiers().contains(Modifier.PRIVATE) && !method.getModifiers().contains(Modifier.STATIC)) {
+                methods.add(method.getSimpleName() + "(" + method.getParameters().stream().map(p -> p.asType().toString())
+                        .collect(Collectors.joining(", ")) + ")");
+            }
+        }
+        String name = elements.getBinaryName(type).toString();
+        Type old = types.remove(name);
+        if (old != null) {
+            for (String method : old.methods) {
+                byMethod.getOrDefault(method.substring(0, method.indexOf('(')), new ArrayList<>()).remove(old);
+            }
+        }
+        String superName = type.getSuperclass().getKind() == TypeKind.DECLARED ? binaryName(type.getSuperclass(), elements) : null;
+        addAll(Collections.singletonList(new Type(name, superName,
+                type.getInterfaces().stream().map(i -> binaryName(i, elements)).collect(Collectors.toList()), methods, true, true)));
+    }
+
+    private static String binaryName(TypeMirror type, Elements elements) {
+        Element element = type.getKind() == TypeKind.DECLARED ? ((DeclaredType) type).asElement() : null;
+        return element instanceof TypeElement ? elements.getBinaryName((TypeElement) element).toString() : type.toString();
+    }
+
+    /** {@code X.class} and {@code {X.class, Y.class}}, either as the only argument or as {@code value=} */
+    private static List<String> classLiterals(AnnotationTree annotation) {
+        List<String> classes = new ArrayList<>();
+        for (ExpressionTree argument : annotation.getArguments()) {
+            ExpressionTree value = argument;
+            if (argument instanceof AssignmentTree) {
+                if (!((AssignmentTree) argument).getVariable().toString().equals("value")) {
+                    continue;
+                }
+                value = ((AssignmentTree) argument).getExpression();
+            }
+            List<? extends ExpressionTree> literals = value instanceof NewArrayTree ? ((NewArrayTree) value).getInitializers()
+                    : Collections.singletonList(value);
+            for (ExpressionTree literal : literals) {
+                if (literal.getKind() == Tree.Kind.MEMBER_SELECT && ((MemberSelectTree) literal).getIdentifier().contentEquals("class")) {
+                    classes.add(((MemberSelectTree) literal).getExpression().toString());
+                }
+            }
+        }
+        return classes;
+    }
+
+    /** a class name as written in a source: relative to an import, its package, or fully qualified */
+    private static TypeElement resolve(String name, String packageName, List<String> imports, Elements elements) {
+        String first = name.contains(".") ? name.substring(0, name.indexOf('.')) : name;
+        List<String> candidates = new ArrayList<>();
+        for (String imported : imports) {
+            if (imported.endsWith("." + first)) {
+                candidates.add(imported + name.substring(first.length()));
+            } else if (imported.endsWith(".*")) {
+                candidates.add(imported.substring(0, imported.length() - 1) + name);
+            }
+        }
+        candidates.add(packageName.isEmpty() ? name : packageName + "." + name);
+        candidates.add(name);
+        for (String candidate : candidates) {
+            TypeElement type = elements.getTypeElement(candidate);
+            if (type != null) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /** the public static methods with at least one parameter, like Lombok takes them */
+    private static List<Extension> extensions(TypeElement extensionClass, Elements elements, Types types) {
+        List<Extension> extensions = new ArrayList<>();
+        for (ExecutableElement method : ElementFilter.methodsIn(extensionClass.getEnclosedElements())) {
+            if (method.getModifiers().contains(Modifier.PUBLIC) && method.getModifiers().contains(Modifier.STATIC)
+                    && !method.getParameters().isEmpty()) {
+                TypeMirror receiver = types.erasure(method.getParameters().get(0).asType());
+                extensions.add(new Extension(method.getSimpleName().toString(), binaryName(receiver, elements),
+                        method.getSimpleName() + "(" + method.getParameters().stream().map(p -> p.asType().toString())
+                                .collect(Collectors.joining(", ")) + ")"));
+            }
+        }
+        return extensions;
+    }
+
+    // --- the report
+
+    /** prints the collisions of every extension method, returns their number */
+    int print(Collection<ExtensionClass> extensions, int max, PrintStream out) {
+        int total = 0;
+        for (ExtensionClass extensionClass : extensions) {
+            out.printf(Locale.ROOT, "%n%s, used by %s%n", extensionClass.name,
+                    extensionClass.users.stream().map(CollisionIndex::simpleName).collect(Collectors.joining(", ")));
+            int before = total;
+            for (Extension extension : extensionClass.methods) {
+                List<Type> receivers = new ArrayList<>();
+                List<Type> others = new ArrayList<>();
+                for (Type type : byMethod.getOrDefault(extension.name, Collections.<Type>emptyList())) {
+                    (isSubtype(type.name, extension.receiver) ? receivers : others).add(type);
+                }
+                if (receivers.isEmpty() && others.isEmpty()) {
+                    continue;
+                }
+                total += receivers.size() + others.size();
+                out.printf(Locale.ROOT, "  %s: %d receivers, %d other types%n", extension.signature, receivers.size(), others.size());
+                // the own types first, they are the ones that can be changed
+                Comparator<Type> order = Comparator.comparing((Type type) -> !type.source).thenComparing(type -> type.name);
+                receivers.sort(order);
+                others.sort(order);
+                int shown = 0;
+                for (Type type : receivers) {
+                    if (shown++ < max) {
+                        out.println("    receiver " + describe(type, extension.name));
+                    }
+                }
+                for (Type type : others) {
+                    if (shown++ < max) {
+                        out.println("    other    " + describe(type, extension.name));
+                    }
+                }
+                if (shown > max) {
+                    out.printf(Locale.ROOT, "    ... %d more%n", shown - max);
+                }
+            }
+            if (total == before) {
+                out.println("  no collisions");
+            }
+        }
+        return total;
+    }
+
+    private static String simpleName(String binaryName) {
+        return binaryName.substring(binaryName.lastIndexOf('.') + 1);
+    }
+
+    private static String describe(Type type, String method) {
+        return type.name + ": " + type.methods.stream().filter(m -> m.startsWith(method + "(")).collect(Collectors.joining(", "));
+    }
+
+    /** whether {@code type} extends or implements {@code supertype}, as far as the index knows the hierarchy */
+    boolean isSubtype(String type, String supertype) {
+        if (supertype.equals("java.lang.Object")) {
+            return true;
+        }
+        Deque<String> work = new ArrayDeque<>(Collections.singleton(type));
+        Set<String> seen = new HashSet<>();
+        while (!work.isEmpty()) {
+            String name = work.pop();
+            if (name.equals(supertype)) {
+                return true;
+            }
+            Type known = types.get(name);
+            if (known != null && seen.add(name)) {
+                if (known.superName != null) {
+                    work.push(known.superName);
+                }
+                known.interfaces.forEach(work::push);
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,58 @@
+package prob.lems.tools;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sends a command to a running {@link CompileDaemon} and prints its response.<br>
+ * <br>
+ * Usage: {@code CompileClient [--port n] [compile [case.java]... | status | watch | stop]}, the default is {@code compile}.
+ * Exits with 1 if a compilation failed, with 2 if there is no daemon.
+ * This class should stay this small, it is started for every run.
+ */
+public class CompileClient {
+
+    public static void main(String[] args) throws IOException {
+        int port = CompileDaemon.DEFAULT_PORT;
+        StringBuilder command = new StringBuilder();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[++i]);
+            } else {
+                command.append(command.length() == 0 ? "" : " ").append(args[i]);
+            }
+        }
+        if (command.length() == 0) {
+            command.append("compile");
+        }
+        boolean watch = command.toString().equals("watch");
+        int failed = 0;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write((command + "\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(CompileDaemon.END)) {
+                    failed = Integer.parseInt(line.substring(CompileDaemon.END.length()));
+                    if (!watch) {
+                        break;
+                    }
+                } else {
+                    System.out.println(line);
+                }
+            }
+        } catch (ConnectException e) {
+            System.err.println("no compile daemon on port " + port + ", start one with \"make daemon\"");
+            System.exit(2);
+        }
+        System.exit(failed > 0 ? 1 : 0);
+    }
+}
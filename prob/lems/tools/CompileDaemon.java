@@ -0,0 +1,263 @@
+package prob.lems.tools;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps javac and all Lombok versions loaded and warm, and recompiles the cases in {@code prob/lems} as soon as they are saved.<br>
+ * <br>
+ * A {@link CompileMatrix} run pays for starting the JVM, loading Lombok and a cold JIT every time. This daemon pays once:
+ * it compiles all cases a few times on startup, then watches {@code prob/lems} and recompiles only the changed cases,
+ * plus the cases that mention a changed helper class by name. The results are printed like the table of {@link CompileMatrix}.<br>
+ * <br>
+ * {@link CompileClient} talks to it on a local port, with one command per connection:
+ * <ul>
+ * <li>{@code compile [case.java]...}: compiles the given cases, or all of them</li>
+ * <li>{@code status}: the last results of all cases, without compiling</li>
+ * <li>{@code watch}: streams the results of every recompilation after a change</li>
+ * <li>{@code stop}: stops the daemon</li>
+ * </ul>
+ * Each response ends with a line {@code #end <failed compilations>}.
+ * Usage: {@code CompileDaemon [--port n] [--warmups n] [--lombok jar]...}, run it with {@code make daemon}.
+ */
+public class CompileDaemon {
+
+    public static final int DEFAULT_PORT = 7878;
+    static final String END = "#end ";
+
+    // editors save in several steps (temp file, rename, touch), wait this long for the rest of them
+    private static final long SETTLE_MILLIS = 20;
+
+    private final Path dir;
+    private final List<LombokCompiler> compilers;
+    private final ExecutorService executor;
+    private final BuildCache cache;
+    // the last outcomes of every case, by compiler
+    private final Map<Path, List<CompileMatrix.Outcome>> last = new TreeMap<>();
+    private final Map<Path, CompileMatrix.Case> cases = new TreeMap<>();
+    private final List<PrintStream> watchers = new CopyOnWriteArrayList<>();
+
+    CompileDaemon(Path dir, List<LombokCompiler> compilers, BuildCache cache) {
+        this.dir = dir;
+        this.compilers = compilers;
+        this.cache = cache;
+        this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "compile");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        int warmups = 3;
+        List<Path> jars = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--warmups")) {
+                warmups = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--lombok")) {
+                jars.add(Paths.get(args[++i]));
+            } else {
+                throw new IllegalArgumentException("unknown argument " + args[i]);
+            }
+        }
+        CompileDaemon daemon = new CompileDaemon(Paths.get("prob/lems"),
+                CompileMatrix.compilers(jars.isEmpty() ? CompileMatrix.defaultJars() : jars),
+                new BuildCache(CompileMatrix.DEFAULT_CACHE, CompileMatrix.DEFAULT_CACHE_MEGABYTES << 20));
+        try (ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            for (int i = 0; i < warmups; i++) {
+                System.out.printf(Locale.ROOT, "warmup %d/%d%n", i + 1, warmups);
+                // past the cache, which would leave javac cold
+                daemon.compile(CompileMatrix.defaultCases(), new PrintStream(new ByteArrayOutputStream()), false);
+            }
+            daemon.compile(CompileMatrix.defaultCases(), System.out);
+            Thread watch = new Thread(daemon::watch, "watch");
+            watch.setDaemon(true);
+            watch.start();
+            System.out.println("listening on port " + port);
+            while (true) {
+                Socket socket = server.accept();
+                Thread handler = new Thread(() -> daemon.handle(socket), "client");
+                handler.setDaemon(true);
+                handler.start();
+            }
+        }
+    }
+
+    /** compiles the cases with all compilers, prints the results to {@code out}, returns the number of failed compilations */
+    int compile(List<Path> sources, PrintStream out) throws IOException, InterruptedException, ExecutionException {
+        return compile(sources, out, true);
+    }
+
+    /** the same, with results from the cache only if {@code cached} */
+    private int compile(List<Path> sources, PrintStream out, boolean cached) throws IOException, InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+        List<CompileMatrix.Case> compiled = CompileMatrix.cases(sources);
+        List<List<CompileMatrix.Outcome>> outcomes = CompileMatrix.compile(compiled, compilers, executor, cached ? cache : null);
+        long elapsed = System.nanoTime() - start;
+        synchronized (last) {
+            for (int i = 0; i < compiled.size(); i++) {
+                Path source = compiled.get(i).source.normalize();
+                cases.put(source, compiled.get(i));
+                last.put(source, outcomes.get(i));
+            }
+        }
+        int failed = CompileMatrix.print(compiled, compilers, outcomes, out);
+        out.printf(Locale.ROOT, "%d compilations, %d failed, %d ms%n", compiled.size() * compilers.size(), failed, elapsed / 1_000_000);
+        return failed;
+    }
+
+    private int status(PrintStream out) {
+        List<CompileMatrix.Case> known;
+        List<List<CompileMatrix.Outcome>> outcomes;
+        synchronized (last) {
+            known = new ArrayList<>(cases.values());
+            outcomes = new ArrayList<>(last.values());
+        }
+        return CompileMatrix.print(known, compilers, outcomes, out);
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+                BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                PrintStream out = new PrintStream(s.getOutputStream(), false, "UTF-8")) {
+            String line = in.readLine();
+            String[] command = line == null ? new String[0] : line.trim().split("\\s+");
+            switch (command.length == 0 ? "" : command[0]) {
+                case "compile":
+                    List<Path> sources = new ArrayList<>();
+                    for (int i = 1; i < command.length; i++) {
+                        sources.add(Paths.get(command[i]));
+                    }
+                    int failed = compile(sources.isEmpty() ? CompileMatrix.defaultCases() : sources, out);
+                    out.println(END + failed);
+                    break;
+                case "status":
+                    out.println(END + status(out));
+                    break;
+                case "watch":
+                    watchers.add(out);
+                    out.println("watching " + dir);
+                    out.flush();
+                    // until the client disconnects
+                    while (in.readLine() != null) {
+                        // ignore
+                    }
+                    watchers.remove(out);
+                    break;
+                case "stop":
+                    out.println("stopping");
+                    out.println(END + 0);
+                    out.flush();
+                    System.exit(0);
+                    break;
+                default:
+                    out.println("unknown command: " + line);
+                    out.println(END + 1);
+            }
+            out.flush();
+        } catch (IOException | InterruptedException | ExecutionException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void watch() {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (true) {
+                WatchKey key = watcher.take();
+                Set<Path> changed = new TreeSet<>();
+                do {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.context() instanceof Path && event.context().toString().endsWith(".java")) {
+                            changed.add(dir.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                } while ((key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+                List<Path> affected = affected(changed);
+                if (!affected.isEmpty()) {
+                    recompile(changed, affected);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** the changed cases, and the cases that use a changed helper, eg. {@code TitleCase} */
+    private List<Path> affected(Set<Path> changed) throws IOException {
+        Set<Path> affected = new TreeSet<>();
+        List<String> helpers = new ArrayList<>();
+        for (Path path : changed) {
+            if (Files.isRegularFile(path)) {
+                if (CompileMatrix.isCase(path)) {
+                    affected.add(path);
+                } else {
+                    helpers.add(path.getFileName().toString().replaceFirst("\\.java$", ""));
+                }
+            }
+        }
+        if (!helpers.isEmpty()) {
+            for (Path source : CompileMatrix.defaultCases()) {
+                String content = new String(Files.readAllBytes(source), StandardCharsets.UTF_8);
+                if (helpers.stream().anyMatch(content::contains)) {
+                    affected.add(source);
+                }
+            }
+        }
+        return new ArrayList<>(affected);
+    }
+
+    private void recompile(Set<Path> changed, List<Path> affected) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        PrintStream report = new PrintStream(buffer, true);
+        report.println("changed: " + changed);
+        int failed;
+        try {
+            failed = compile(affected, report);
+        } catch (IOException | InterruptedException | ExecutionException | RuntimeException e) {
+            e.printStackTrace(report);
+            failed = 1;
+        }
+        String text = buffer.toString();
+        System.out.print(text);
+        for (PrintStream watcher : watchers) {
+            watcher.print(text);
+            watcher.println(END + failed);
+            watcher.flush();
+            if (watcher.checkError()) {
+                watchers.remove(watcher);
+            }
+        }
+    }
+}
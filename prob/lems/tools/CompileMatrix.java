@@ -0,0 +1,320 @@
+package prob.lems.tools;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Compiles every problem case with every Lombok version, and compares the errors with the ones expected in the sources.<br>
+ * <br>
+ * All compilations run in this JVM, in parallel, without writing class files (see {@link LombokCompiler}),
+ * instead of a javac process per case and version. An expected error is a comment at the end of the line that fails:
+ * <pre>
+ * this.hello(); // expect-error: cannot find symbol
+ * &#64;ExtensionMethod(Extensions.class) // expect-error(1.18.24): &#64;ExtensionMethod can only be used on a class or an enum
+ * </pre>
+ * The message has to be a prefix of the first line of the actual one, the versions in parentheses restrict it to those Lombok versions.
+ * A case passes if its errors and the expected ones are exactly the same.<br>
+ * <br>
+ * Results are kept in a {@link BuildCache}, so only changed cases are compiled again.<br>
+ * <br>
+ * Usage: {@code CompileMatrix [--threads n] [--lombok jar]... [--cache dir | --no-cache] [--cache-size megabytes] [case.java]...},
+ * by default all {@code lombok-*.jar} in the current directory, all {@code prob/lems/*.java} using {@code @ExtensionMethod}
+ * and a cache of 64 MB in {@code build/cache}.
+ * Exits with 1 if any case fails. Run it with {@code make matrix}.
+ */
+public class CompileMatrix {
+
+    static final Path DEFAULT_CACHE = Paths.get("build/cache");
+    static final long DEFAULT_CACHE_MEGABYTES = 64;
+
+    private static final Pattern QUALIFIED = Pattern.compile("\\b(?:[a-z_$][\\w$]*\\.)+(?:[A-Z][\\w$]*\\.)*([A-Z][\\w$]*)");
+    private static final Pattern EXPECT = Pattern.compile("//\\s*expect-error(?:\\(([^)]*)\\))?:\\s*(.*?)\\s*$");
+
+    /** an error expected on a line of a case, for all versions if {@code versions} is empty */
+    static final class Expected {
+        final long line;
+        final List<String> versions;
+        final String message;
+
+        Expected(long line, List<String> versions, String message) {
+            this.line = line;
+            this.versions = versions;
+            this.message = message;
+        }
+
+        boolean appliesTo(String version) {
+            return versions.isEmpty() || versions.contains(version);
+        }
+
+        boolean matches(Diagnostic<? extends JavaFileObject> error) {
+            return error.getLineNumber() == line && firstLine(error).startsWith(message);
+        }
+    }
+
+    static final class Case {
+        final Path source;
+        final List<Expected> expected;
+
+        Case(Path source, List<Expected> expected) {
+            this.source = source;
+            this.expected = expected;
+        }
+
+        String name() {
+            return source.getFileName().toString().replaceFirst("\\.java$", "");
+        }
+
+        static Case read(Path source) throws IOException {
+            List<String> lines = Files.readAllLines(source, StandardCharsets.UTF_8);
+            List<Expected> expected = new ArrayList<>();
+            for (int i = 0; i < lines.size(); i++) {
+                Matcher matcher = EXPECT.matcher(lines.get(i));
+                if (matcher.find()) {
+                    List<String> versions = new ArrayList<>();
+                    if (matcher.group(1) != null) {
+                        for (String version : matcher.group(1).split(",")) {
+                            versions.add(version.trim());
+                        }
+                    }
+                    expected.add(new Expected(i + 1, versions, matcher.group(2)));
+                }
+            }
+            return new Case(source, expected);
+        }
+    }
+
+    /** the outcome of one case with one Lombok version */
+    static final class Outcome {
+        final int errors;
+        final List<String> problems = new ArrayList<>();
+        final long nanos;
+        final boolean cached;
+
+        Outcome(Case c, String version, LombokCompiler.Result result) {
+            this.nanos = result.nanos();
+            this.cached = result.cached();
+            List<Diagnostic<? extends JavaFileObject>> unexpected = new ArrayList<>(result.errors());
+            this.errors = unexpected.size();
+            for (Expected expected : c.expected) {
+                if (expected.appliesTo(version)) {
+                    Iterator<Diagnostic<? extends JavaFileObject>> it = unexpected.iterator();
+                    boolean found = false;
+                    while (!found && it.hasNext()) {
+                        Diagnostic<? extends JavaFileObject> error = it.next();
+                        if (isIn(error, c.source) && expected.matches(error)) {
+                            it.remove();
+                            found = true;
+                        }
+                    }
+                    if (!found) {
+                        problems.add(String.format("missing    %s:%d: error: %s", c.source, expected.line, expected.message));
+                    }
+                }
+            }
+            for (Diagnostic<? extends JavaFileObject> error : unexpected) {
+                String file = error.getSource() != null ? error.getSource().getName() : "?";
+                problems.add(String.format("unexpected %s:%d: error: %s", file, error.getLineNumber(), firstLine(error)));
+            }
+        }
+
+        boolean ok() {
+            return problems.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            String result = ok() ? "ok" : "FAIL";
+            return errors == 0 ? result : result + " (" + errors + (errors == 1 ? " error)" : " errors)");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> jars = new ArrayList<>();
+        List<Path> sources = new ArrayList<>();
+        Path cacheDir = DEFAULT_CACHE;
+        long cacheMegabytes = DEFAULT_CACHE_MEGABYTES;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--lombok")) {
+                jars.add(Paths.get(args[++i]));
+            } else if (args[i].equals("--cache")) {
+                cacheDir = Paths.get(args[++i]);
+            } else if (args[i].equals("--no-cache")) {
+                cacheDir = null;
+            } else if (args[i].equals("--cache-size")) {
+                cacheMegabytes = Long.parseLong(args[++i]);
+            } else {
+                sources.add(Paths.get(args[i]));
+            }
+        }
+        List<Case> cases = cases(sources.isEmpty() ? defaultCases() : sources);
+        List<LombokCompiler> compilers = compilers(jars.isEmpty() ? defaultJars() : jars);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, cases.size() * compilers.size())));
+        BuildCache cache = cacheDir == null ? null : new BuildCache(cacheDir, cacheMegabytes << 20);
+        long start = System.nanoTime();
+        List<List<Outcome>> outcomes = compile(cases, compilers, executor, cache);
+        long elapsed = System.nanoTime() - start;
+        int failed = print(cases, compilers, outcomes, System.out);
+        long sum = outcomes.stream().flatMap(List::stream).filter(outcome -> !outcome.cached).mapToLong(outcome -> outcome.nanos).sum();
+        System.out.printf(Locale.ROOT, "%n%d compilations, %d failed, %d ms (%d ms compiling, %d from the cache, %d threads)%n",
+                cases.size() * compilers.size(), failed, elapsed / 1_000_000, sum / 1_000_000, cache == null ? 0 : cache.hits(), threads);
+        if (cache != null) {
+            cache.close();
+        }
+        executor.shutdown();
+        for (LombokCompiler compiler : compilers) {
+            compiler.close();
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+
+    /** all {@code prob/lems/*.java} using {@code @ExtensionMethod} */
+    static List<Path> defaultCases() throws IOException {
+        List<Path> sources = new ArrayList<>();
+        for (Path source : list(Paths.get("prob/lems"), "*.java")) {
+            if (isCase(source)) {
+                sources.add(source);
+            }
+        }
+        return sources;
+    }
+
+    static boolean isCase(Path source) throws IOException {
+        return new String(Files.readAllBytes(source), StandardCharsets.UTF_8).contains("@ExtensionMethod");
+    }
+
+    /** all {@code lombok-*.jar} in the current directory */
+    static List<Path> defaultJars() throws IOException {
+        return list(Paths.get("."), "lombok-*.jar");
+    }
+
+    static List<Case> cases(List<Path> sources) throws IOException {
+        List<Case> cases = new ArrayList<>();
+        for (Path source : sources) {
+            cases.add(Case.read(source));
+        }
+        return cases;
+    }
+
+    static List<LombokCompiler> compilers(List<Path> jars) {
+        List<LombokCompiler> compilers = new ArrayList<>();
+        for (Path jar : jars) {
+            compilers.add(new LombokCompiler(jar, Collections.singletonList(Paths.get("."))));
+        }
+        return compilers;
+    }
+
+    /** compiles the case, or takes its result from {@code cache}, if that is not {@code null} */
+    static Outcome compile(Case c, LombokCompiler compiler, BuildCache cache) throws IOException {
+        List<Path> sources = Collections.singletonList(c.source);
+        List<String> options = Collections.singletonList("-nowarn");
+        return new Outcome(c, compiler.version(), cache != null ? cache.compile(compiler, sources, options) : compiler.compile(sources, options));
+    }
+
+    /** compiles every case with every compiler on {@code executor}, the outcomes by case and compiler */
+    static List<List<Outcome>> compile(List<Case> cases, List<LombokCompiler> compilers, ExecutorService executor, BuildCache cache)
+            throws InterruptedException, ExecutionException {
+        List<List<Future<Outcome>>> futures = new ArrayList<>();
+        for (Case c : cases) {
+            List<Future<Outcome>> row = new ArrayList<>();
+            for (LombokCompiler compiler : compilers) {
+                row.add(executor.submit(() -> compile(c, compiler, cache)));
+            }
+            futures.add(row);
+        }
+        List<List<Outcome>> outcomes = new ArrayList<>();
+        for (List<Future<Outcome>> row : futures) {
+            List<Outcome> outcomeRow = new ArrayList<>();
+            for (Future<Outcome> future : row) {
+                outcomeRow.add(future.get());
+            }
+            outcomes.add(outcomeRow);
+        }
+        return outcomes;
+    }
+
+    /** prints the table of outcomes and the problems of the failed ones, returns the number of failed compilations */
+    static int print(List<Case> cases, List<LombokCompiler> compilers, List<List<Outcome>> outcomes, PrintStream out) {
+        int width = cases.stream().mapToInt(c -> c.name().length()).max().orElse(4) + 2;
+        StringBuilder header = new StringBuilder(pad("case", width));
+        for (LombokCompiler compiler : compilers) {
+            header.append(pad(compiler.version(), 20));
+        }
+        out.println(header.toString().trim());
+        List<String> problems = new ArrayList<>();
+        int failed = 0;
+        for (int i = 0; i < cases.size(); i++) {
+            StringBuilder line = new StringBuilder(pad(cases.get(i).name(), width));
+            for (int j = 0; j < compilers.size(); j++) {
+                Outcome outcome = outcomes.get(i).get(j);
+                line.append(pad(outcome.toString(), 20));
+                if (!outcome.ok()) {
+                    failed++;
+                    for (String problem : outcome.problems) {
+                        problems.add("[" + compilers.get(j).version() + "] " + problem);
+                    }
+                }
+            }
+            out.println(line.toString().trim());
+        }
+        if (!problems.isEmpty()) {
+            out.println();
+            problems.forEach(out::println);
+        }
+        return failed;
+    }
+
+    private static boolean isIn(Diagnostic<? extends JavaFileObject> error, Path source) {
+        return error.getSource() != null && Paths.get(error.getSource().toUri()).endsWith(source.normalize());
+    }
+
+    /**
+     * the first line of the message, with simple class names like on the command line
+     * (eg. {@code class Extensions}, where the compiler API reports {@code class prob.lems.ProblemWithJavacButNotEclipse3.Extensions})
+     */
+    static String firstLine(Diagnostic<?> diagnostic) {
+        String message = diagnostic.getMessage(Locale.ENGLISH);
+        int newline = message.indexOf('\n');
+        return QUALIFIED.matcher(newline < 0 ? message : message.substring(0, newline)).replaceAll("$1");
+    }
+
+    private static String pad(String text, int width) {
+        StringBuilder result = new StringBuilder(text);
+        while (result.length() < width) {
+            result.append(' ');
+        }
+        return result.toString();
+    }
+
+    private static List<Path> list(Path dir, String glob) throws IOException {
+        List<Path> result = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob)) {
+            stream.forEach(result::add);
+        }
+        Collections.sort(result);
+        return result;
+    }
+}
@@ -0,0 +1,322 @@
+package prob.lems.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Checks that calls to extension methods pass their arguments with the exact parameter types, see {@link prob.lems.JNIProblemWorkaround}.<br>
+ * <br>
+ * Lombok turns {@code "".hello(5)} into {@code invokestatic Extensions.hello}. If no overload takes exactly an {@code int},
+ * the compiler has to widen or box the argument, which Eclipse sometimes forgets ({@link prob.lems.JNIProblem}).
+ * For every {@code invokestatic} into a class whose name matches {@code --owner} (by default all {@code ...Extensions} classes)
+ * this finds the instruction that pushed each argument, and reports it if it
+ * <ul>
+ * <li>widens a primitive ({@code i2l}, {@code i2d}, ...),</li>
+ * <li>boxes a primitive ({@code Long.valueOf} and friends), or</li>
+ * <li>pushes a primitive of a different type than the parameter (what Eclipse produces, fails verification).</li>
+ * </ul>
+ * The instruction is found by walking back from the call, through the stack effect of each instruction, without a full data flow analysis.
+ * So an argument is not checked if the walk reaches a jump target or an exception handler first (eg. for {@code hello(b ? i : j, "x")}),
+ * or an instruction that reorders the stack ({@code swap} and the {@code dup_x} ones).<br>
+ * Constants are widened by javac itself: {@code hello(5)} for a {@code long} parameter is compiled to {@code ldc2_w 5}, just like
+ * {@code hello(5L)}, and cannot be told from it. What this finds for such a call is the {@code iconst_5} that Eclipse pushes instead.<br>
+ * <br>
+ * Usage: {@code ExtensionCallCheck [--owner regex] <class dir or jar>...}, exits with 1 if anything was found.
+ */
+public class ExtensionCallCheck {
+
+    private static final Pattern BOXING_OWNER = Pattern.compile("java/lang/(Boolean|Byte|Character|Short|Integer|Long|Float|Double)");
+
+    public static void main(String[] args) throws Exception {
+        Pattern owner = Pattern.compile(".*Extensions\\d*");
+        List<Path> roots = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--owner")) {
+                owner = Pattern.compile(args[++i]);
+            } else {
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        int classes = 0;
+        int calls = 0;
+        List<String> problems = new ArrayList<>();
+        for (ClassFiles.Entry entry : ClassFiles.list(roots)) {
+            ClassFile classFile = ClassFile.parse(entry.read());
+            classes++;
+            for (ClassFile.Method method : classFile.methods()) {
+                if (method.hasCode()) {
+                    calls += check(classFile, method, owner, problems);
+                }
+            }
+        }
+        problems.forEach(System.out::println);
+        System.out.printf("%d classes, %d extension method calls, %d problems%n", classes, calls, problems.size());
+        if (!problems.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    /** checks all extension method calls in {@code method}, returns their number */
+    static int check(ClassFile classFile, ClassFile.Method method, Pattern owner, List<String> problems) {
+        ByteBuffer code = method.code();
+        List<Integer> pcs = new ArrayList<>();
+        for (int pc = 0; pc < code.limit(); pc += Bytecode.length(code, pc)) {
+            pcs.add(pc);
+        }
+        Set<Integer> joins = joins(method, code, pcs);
+        int calls = 0;
+        for (int i = 0; i < pcs.size(); i++) {
+            int pc = pcs.get(i);
+            if (Bytecode.opcode(code, pc) == Bytecode.INVOKESTATIC) {
+                ClassFile.MemberRef target = classFile.memberRef(Bytecode.u2(code, pc));
+                if (owner.matcher(target.owner).matches()) {
+                    calls++;
+                    List<String> parameters = parameters(target.descriptor);
+                    // the arguments are checked from the last one, their problems are listed from the first one
+                    int first = problems.size();
+                    // the stack words above each argument
+                    int above = 0;
+                    for (int n = parameters.size() - 1; n >= 0; n--) {
+                        char parameter = parameters.get(n).charAt(0);
+                        int producer = producer(classFile, code, pcs, joins, i, above);
+                        String problem = producer >= 0 ? checkArgument(classFile, code, producer, parameter) : null;
+                        if (problem != null) {
+                            problems.add(first, String.format("%s.%s%s @%d: invokestatic %s: argument %d %s",
+                                    classFile.name(), method.name(), method.descriptor(), pc, target, n + 1, problem));
+                        }
+                        above += size(parameter);
+                    }
+                }
+            }
+        }
+        return calls;
+    }
+
+    /** the pcs that are not only reached from the instruction before them: jump targets and exception handlers */
+    private static Set<Integer> joins(ClassFile.Method method, ByteBuffer code, List<Integer> pcs) {
+        Set<Integer> joins = new HashSet<>();
+        for (int i = 0; i < method.exceptionHandlers(); i++) {
+            joins.add(method.exceptionHandler(i)[2]);
+        }
+        for (int pc : pcs) {
+            int opcode = Bytecode.opcode(code, pc);
+            if (opcode >= 0x99 && opcode <= 0xA8 || opcode == 0xC6 || opcode == 0xC7) { // if*, goto, jsr
+                joins.add(pc + code.getShort(pc + 1));
+            } else if (opcode == 0xC8 || opcode == 0xC9) { // goto_w, jsr_w
+                joins.add(pc + code.getInt(pc + 1));
+            } else if (opcode == Bytecode.TABLESWITCH) {
+                int base = (pc + 4) & ~3;
+                joins.add(pc + code.getInt(base));
+                for (int j = 0; j <= code.getInt(base + 8) - code.getInt(base + 4); j++) {
+                    joins.add(pc + code.getInt(base + 12 + 4 * j));
+                }
+            } else if (opcode == Bytecode.LOOKUPSWITCH) {
+                int base = (pc + 4) & ~3;
+                joins.add(pc + code.getInt(base));
+                for (int j = 0; j < code.getInt(base + 4); j++) {
+                    joins.add(pc + code.getInt(base + 12 + 8 * j));
+                }
+            }
+        }
+        return joins;
+    }
+
+    /**
+     * The pc of the instruction that pushed the value {@code above} stack words below the top, before the instruction {@code pcs[index]},
+     * or -1 if that is not known.
+     */
+    private static int producer(ClassFile classFile, ByteBuffer code, List<Integer> pcs, Set<Integer> joins, int index, int above) {
+        for (int i = index; i > 0 && !joins.contains(pcs.get(i)); i--) {
+            int pc = pcs.get(i - 1);
+            int opcode = Bytecode.opcode(code, pc);
+            if (opcode == 0x59) { // dup, both copies are the value that was on top
+                above = above < 2 ? 0 : above - 1;
+                continue;
+            }
+            int[] effect = stackEffect(classFile, code, pc);
+            if (effect == null) {
+                return -1;
+            }
+            if (above < effect[1]) {
+                // the dup_x ones and swap push words that they popped
+                return opcode >= 0x5A && opcode <= 0x5F ? -1 : pc;
+            }
+            above += effect[0] - effect[1];
+        }
+        return -1;
+    }
+
+    /** the stack words popped and pushed by the instruction at {@code pc}, null for the ones that do not fall through or jump back */
+    private static int[] stackEffect(ClassFile classFile, ByteBuffer code, int pc) {
+        int opcode = Bytecode.opcode(code, pc);
+        if (opcode == Bytecode.WIDE) {
+            opcode = Bytecode.opcode(code, pc + 1);
+        }
+        if (opcode == 0x00) { // nop
+            return new int[] { 0, 0 };
+        }
+        if (opcode <= 0x14) { // constants
+            return new int[] { 0, opcode == 0x09 || opcode == 0x0A || opcode == 0x0E || opcode == 0x0F || opcode == 0x14 ? 2 : 1 };
+        }
+        if (opcode <= 0x2D) { // loads
+            int type = opcode <= 0x19 ? opcode - 0x15 : (opcode - 0x1A) / 4;
+            return new int[] { 0, type == 1 || type == 3 ? 2 : 1 };
+        }
+        if (opcode <= 0x35) { // array loads
+            return new int[] { 2, opcode == 0x2F || opcode == 0x31 ? 2 : 1 };
+        }
+        if (opcode <= 0x4E) { // stores
+            int type = opcode <= 0x3A ? opcode - 0x36 : (opcode - 0x3B) / 4;
+            return new int[] { type == 1 || type == 3 ? 2 : 1, 0 };
+        }
+        if (opcode <= 0x56) { // array stores
+            return new int[] { opcode == 0x50 || opcode == 0x52 ? 4 : 3, 0 };
+        }
+        switch (opcode) {
+            case 0x57: return new int[] { 1, 0 }; // pop
+            case 0x58: return new int[] { 2, 0 }; // pop2
+            case 0x5A: return new int[] { 2, 3 }; // dup_x1
+            case 0x5B: return new int[] { 3, 4 }; // dup_x2
+            case 0x5C: return new int[] { 2, 4 }; // dup2
+            case 0x5D: return new int[] { 3, 5 }; // dup2_x1
+            case 0x5E: return new int[] { 4, 6 }; // dup2_x2
+            case 0x5F: return new int[] { 2, 2 }; // swap
+            default: break;
+        }
+        if (opcode <= 0x73) { // add, sub, mul, div, rem
+            return (opcode - 0x60) % 2 == 1 ? new int[] { 4, 2 } : new int[] { 2, 1 };
+        }
+        if (opcode <= 0x77) { // neg
+            return (opcode - 0x74) % 2 == 1 ? new int[] { 2, 2 } : new int[] { 1, 1 };
+        }
+        if (opcode <= 0x7D) { // shifts, the distance is an int
+            return (opcode - 0x78) % 2 == 1 ? new int[] { 3, 2 } : new int[] { 2, 1 };
+        }
+        if (opcode <= 0x83) { // and, or, xor
+            return (opcode - 0x7E) % 2 == 1 ? new int[] { 4, 2 } : new int[] { 2, 1 };
+        }
+        if (opcode == 0x84) { // iinc
+            return new int[] { 0, 0 };
+        }
+        if (opcode <= 0x93) { // conversions, by the types they convert from and to
+            String name = Bytecode.name(opcode);
+            return new int[] { size(name.charAt(0)), size(name.charAt(2)) };
+        }
+        switch (opcode) {
+            case 0x94: case 0x97: case 0x98: return new int[] { 4, 1 }; // lcmp, dcmpl, dcmpg
+            case 0x95: case 0x96: return new int[] { 2, 1 }; // fcmpl, fcmpg
+            case 0x99: case 0x9A: case 0x9B: case 0x9C: case 0x9D: case 0x9E: case 0xC6: case 0xC7: // if<cond>, ifnull, ifnonnull
+            case Bytecode.TABLESWITCH: case Bytecode.LOOKUPSWITCH:
+            case 0xC2: case 0xC3: // monitorenter, monitorexit
+                return new int[] { 1, 0 };
+            case 0x9F: case 0xA0: case 0xA1: case 0xA2: case 0xA3: case 0xA4: case 0xA5: case 0xA6: // if_icmp<cond>, if_acmp<cond>
+                return new int[] { 2, 0 };
+            case 0xA7: case 0xC8: // goto, goto_w
+                return new int[] { 0, 0 };
+            case 0xB2: case 0xB3: case 0xB4: case 0xB5: { // getstatic, putstatic, getfield, putfield
+                int field = size(classFile.memberRef(Bytecode.u2(code, pc)).descriptor.charAt(0));
+                return opcode == 0xB2 ? new int[] { 0, field } : opcode == 0xB3 ? new int[] { field, 0 }
+                        : opcode == 0xB4 ? new int[] { 1, field } : new int[] { 1 + field, 0 };
+            }
+            case Bytecode.INVOKEVIRTUAL: case Bytecode.INVOKESPECIAL: case Bytecode.INVOKESTATIC: case Bytecode.INVOKEINTERFACE:
+            case Bytecode.INVOKEDYNAMIC: {
+                int index = Bytecode.u2(code, pc);
+                String descriptor = opcode == Bytecode.INVOKEDYNAMIC ? classFile.utf8(classFile.ref(classFile.ref(index, 1), 1))
+                        : classFile.memberRef(index).descriptor;
+                int arguments = 0;
+                for (String parameter : parameters(descriptor)) {
+                    arguments += size(parameter.charAt(0));
+                }
+                char result = descriptor.charAt(descriptor.indexOf(')') + 1);
+                return new int[] { opcode == Bytecode.INVOKESTATIC || opcode == Bytecode.INVOKEDYNAMIC ? arguments : arguments + 1,
+                    result == 'V' ? 0 : size(result) };
+            }
+            case 0xBB: return new int[] { 0, 1 }; // new
+            case 0xBC: case 0xBD: case 0xBE: case 0xC0: case 0xC1: return new int[] { 1, 1 }; // newarray, anewarray, arraylength, checkcast, instanceof
+            case 0xC5: return new int[] { code.get(pc + 3) & 0xFF, 1 }; // multianewarray
+            default: return null; // returns, athrow, jsr, ret
+        }
+    }
+
+    /** the stack words of a value of a type, by the first character of its descriptor, or the letter of a conversion */
+    private static int size(char type) {
+        return type == 'J' || type == 'D' || type == 'l' || type == 'd' ? 2 : 1;
+    }
+
+    /** the parameter types of a method descriptor */
+    private static List<String> parameters(String descriptor) {
+        List<String> parameters = new ArrayList<>();
+        for (int i = 1; descriptor.charAt(i) != ')';) {
+            int start = i;
+            while (descriptor.charAt(i) == '[') {
+                i++;
+            }
+            i = descriptor.charAt(i) == 'L' ? descriptor.indexOf(';', i) + 1 : i + 1;
+            parameters.add(descriptor.substring(start, i));
+        }
+        return parameters;
+    }
+
+    private static String checkArgument(ClassFile classFile, ByteBuffer code, int pc, char parameter) {
+        int opcode = Bytecode.opcode(code, pc);
+        switch (opcode) {
+            case Bytecode.I2L: case Bytecode.I2F: case Bytecode.I2D: case Bytecode.L2F: case Bytecode.L2D: case Bytecode.F2D:
+                return "is widened by " + Bytecode.name(opcode);
+            case Bytecode.INVOKESTATIC:
+                ClassFile.MemberRef call = classFile.memberRef(Bytecode.u2(code, pc));
+                if (call.name.equals("valueOf") && BOXING_OWNER.matcher(call.owner).matches()) {
+                    return "is boxed by " + call;
+                }
+                return null;
+            default:
+                char argument = pushedType(classFile, code, pc);
+                char expected = "ZBCS".indexOf(parameter) >= 0 ? 'I' : parameter;
+                if (argument != 0 && "IJFD".indexOf(expected) >= 0 && argument != expected) {
+                    return "is " + typeName(argument) + ", parameter is " + typeName(parameter);
+                }
+                return null;
+        }
+    }
+
+    /** the primitive type pushed by simple loads and constants, 0 for anything else */
+    private static char pushedType(ClassFile classFile, ByteBuffer code, int pc) {
+        String name = Bytecode.name(Bytecode.opcode(code, pc));
+        if (name.startsWith("ldc")) {
+            int index = name.equals("ldc") ? code.get(pc + 1) & 0xFF : Bytecode.u2(code, pc);
+            switch (classFile.tag(index)) {
+                case ClassFile.INTEGER: return 'I';
+                case ClassFile.LONG: return 'J';
+                case ClassFile.FLOAT: return 'F';
+                case ClassFile.DOUBLE: return 'D';
+                default: return 0;
+            }
+        }
+        if (name.equals("bipush") || name.equals("sipush")) {
+            return 'I';
+        }
+        if (name.matches("[ilfd](const_.*|load(_\\d)?|aload|add|sub|mul|div|rem|neg)") || name.matches("[bcs]aload")) {
+            return name.charAt(0) == 'l' ? 'J' : name.charAt(0) == 'f' ? 'F' : name.charAt(0) == 'd' ? 'D' : 'I';
+        }
+        return 0;
+    }
+
+    private static String typeName(char type) {
+        switch (type) {
+            case 'Z': return "boolean";
+            case 'B': return "byte";
+            case 'C': return "char";
+            case 'S': return "short";
+            case 'I': return "int";
+            case 'J': return "long";
+            case 'F': return "float";
+            case 'D': return "double";
+            default: return "a reference";
+        }
+    }
+}
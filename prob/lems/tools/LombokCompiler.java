@@ -0,0 +1,344 @@
+package prob.lems.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.annotation.processing.Processor;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.ForwardingJavaFileObject;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.TaskListener;
+
+/**
+ * Compiles sources with one Lombok version, in this JVM, without writing class files.<br>
+ * <br>
+ * Each Lombok jar gets its own class loader (a child of the application class loader, which has to see {@code jdk.compiler}),
+ * so several versions can be used side by side. The Lombok jar must therefore not be on the class path of this JVM,
+ * but javac must be, which on Java 8 means adding {@code lib/tools.jar} of the JDK.
+ * The annotation processor is instantiated per compilation, as javac initializes it with its own context.
+ * Every source file is read once per compilation, and hashed from the very bytes javac got, see {@link Result#inputs()}.<br>
+ * <br>
+ * Thread-safe: compilations can run in parallel, every thread keeps its own file manager,
+ * so the JDK and jar indices are only read once per thread.
+ */
+public final class LombokCompiler implements AutoCloseable {
+
+    private static final String PROCESSOR = "lombok.launch.AnnotationProcessorHider$AnnotationProcessor";
+
+    private final Path jar;
+    private final String version;
+    private final URLClassLoader loader;
+    private final Class<? extends Processor> processor;
+    private final List<File> sourcePath;
+    private final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    private final ThreadLocal<StandardJavaFileManager> fileManagers = new ThreadLocal<>();
+    private final ConcurrentLinkedQueue<StandardJavaFileManager> allFileManagers = new ConcurrentLinkedQueue<>();
+    private volatile byte[] digest;
+
+    /**
+     * @param sourcePath where javac finds the classes used by the compiled sources, eg. the helpers of the problem cases
+     */
+    public LombokCompiler(Path jar, List<Path> sourcePath) {
+        if (compiler == null) {
+            throw new IllegalStateException("no system java compiler, this needs a JDK");
+        }
+        this.jar = jar;
+        this.version = version(jar);
+        this.sourcePath = sourcePath.stream().map(Path::toFile).collect(Collectors.toList());
+        try {
+            this.loader = new URLClassLoader(new URL[] { jar.toUri().toURL() }, LombokCompiler.class.getClassLoader());
+            this.processor = Class.forName(PROCESSOR, false, loader).asSubclass(Processor.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("not a lombok jar: " + jar, e);
+        }
+    }
+
+    /** the version from the file name, eg. {@code 1.18.28} for {@code lombok-1.18.28.jar} */
+    public static String version(Path jar) {
+        String name = jar.getFileName().toString();
+        return name.replaceFirst("^lombok-?", "").replaceFirst("\\.jar$", "");
+    }
+
+    public Path jar() {
+        return jar;
+    }
+
+    public String version() {
+        return version;
+    }
+
+    public Result compile(List<Path> sources, List<String> options) {
+        return compile(sources, options, task -> {
+        });
+    }
+
+    /**
+     * @param setUp called with the task before it runs, eg. to add a {@link TaskListener} like {@link PhaseTimer}
+     */
+    public Result compile(List<Path> sources, List<String> options, Consumer<JavacTask> setUp) {
+        StandardJavaFileManager standard = fileManager();
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        Map<Path, byte[]> inputs = new ConcurrentHashMap<>();
+        HashedInput input = new HashedInput(new InMemoryOutput(standard), inputs);
+        List<String> allOptions = new ArrayList<>(Arrays.asList("-encoding", "UTF-8", "-implicit:class"));
+        allOptions.addAll(options);
+        long start = System.nanoTime();
+        List<JavaFileObject> units = new ArrayList<>();
+        for (JavaFileObject unit : standard.getJavaFileObjectsFromFiles(sources.stream().map(Path::toFile).collect(Collectors.toList()))) {
+            units.add(input.wrap(unit));
+        }
+        JavaCompiler.CompilationTask task = compiler.getTask(null, input, diagnostics, allOptions, null, units);
+        task.setProcessors(Collections.singletonList(newProcessor()));
+        setUp.accept((JavacTask) task);
+        boolean success = task.call();
+        return new Result(success, diagnostics.getDiagnostics(), input.output().classes, new TreeMap<>(inputs), System.nanoTime() - start, false);
+    }
+
+    /** SHA-256 of the Lombok jar, computed on first use */
+    public byte[] digest() throws IOException {
+        byte[] result = digest;
+        if (result == null) {
+            result = BuildCache.sha256(jar);
+            digest = result;
+        }
+        return result.clone();
+    }
+
+    private Processor newProcessor() {
+        try {
+            return processor.getConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("cannot instantiate the lombok annotation processor", e);
+        }
+    }
+
+    private StandardJavaFileManager fileManager() {
+        StandardJavaFileManager fileManager = fileManagers.get();
+        if (fileManager == null) {
+            fileManager = compiler.getStandardFileManager(null, Locale.ENGLISH, StandardCharsets.UTF_8);
+            try {
+                fileManager.setLocation(StandardLocation.CLASS_PATH, Collections.singletonList(jar.toFile()));
+                fileManager.setLocation(StandardLocation.SOURCE_PATH, sourcePath);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            fileManagers.set(fileManager);
+            allFileManagers.add(fileManager);
+        }
+        return fileManager;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (StandardJavaFileManager fileManager : allFileManagers) {
+            fileManager.close();
+        }
+        loader.close();
+    }
+
+    /** the outcome of one compilation */
+    public static final class Result {
+        private final boolean success;
+        private final List<Diagnostic<? extends JavaFileObject>> diagnostics;
+        private final Map<String, byte[]> classes;
+        private final SortedMap<Path, byte[]> inputs;
+        private final long nanos;
+        private final boolean cached;
+
+        Result(boolean success, List<Diagnostic<? extends JavaFileObject>> diagnostics, Map<String, byte[]> classes, SortedMap<Path, byte[]> inputs,
+                long nanos, boolean cached) {
+            this.success = success;
+            this.diagnostics = diagnostics;
+            this.classes = classes;
+            this.inputs = inputs;
+            this.nanos = nanos;
+            this.cached = cached;
+        }
+
+        public boolean success() {
+            return success;
+        }
+
+        public List<Diagnostic<? extends JavaFileObject>> diagnostics() {
+            return diagnostics;
+        }
+
+        public List<Diagnostic<? extends JavaFileObject>> errors() {
+            return diagnostics.stream().filter(d -> d.getKind() == Diagnostic.Kind.ERROR).collect(Collectors.toList());
+        }
+
+        /** the generated class files by binary class name, eg. {@code prob.lems.JNIProblem$Extensions} */
+        public Map<String, byte[]> classes() {
+            return classes;
+        }
+
+        /**
+         * All source files javac has read, the compiled ones and the ones it found on the source path, each with the SHA-256
+         * of the content javac read, which may already differ from the file, if it was saved during the compilation.
+         */
+        public SortedMap<Path, byte[]> inputs() {
+            return inputs;
+        }
+
+        /** how long the compilation took, also if the result came from a {@link BuildCache} */
+        public long nanos() {
+            return nanos;
+        }
+
+        /** whether this came from a {@link BuildCache}, instead of being compiled */
+        public boolean cached() {
+            return cached;
+        }
+    }
+
+    /** collects the class files in memory, everything else is left to the standard file manager */
+    private static final class InMemoryOutput extends ForwardingJavaFileManager<StandardJavaFileManager> {
+
+        final Map<String, byte[]> classes = new ConcurrentHashMap<>();
+
+        InMemoryOutput(StandardJavaFileManager fileManager) {
+            super(fileManager);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling) {
+            URI uri = URI.create("mem:///" + className.replace('.', '/') + kind.extension);
+            return new SimpleJavaFileObject(uri, kind) {
+                @Override
+                public OutputStream openOutputStream() {
+                    return new ByteArrayOutputStream() {
+                        @Override
+                        public void close() {
+                            classes.put(className, toByteArray());
+                        }
+                    };
+                }
+            };
+        }
+    }
+
+    /** hands javac the source files as {@link HashedSource}s, and unwraps them again for the standard file manager */
+    private static final class HashedInput extends ForwardingJavaFileManager<InMemoryOutput> {
+
+        private final Map<Path, byte[]> hashes;
+
+        HashedInput(InMemoryOutput output, Map<Path, byte[]> hashes) {
+            super(output);
+            this.hashes = hashes;
+        }
+
+        InMemoryOutput output() {
+            return fileManager;
+        }
+
+        JavaFileObject wrap(JavaFileObject file) {
+            return file.getKind() == JavaFileObject.Kind.SOURCE && "file".equals(file.toUri().getScheme()) ? new HashedSource(file, hashes) : file;
+        }
+
+        private static JavaFileObject unwrap(JavaFileObject file) {
+            return file instanceof HashedSource ? ((HashedSource) file).source() : file;
+        }
+
+        private static FileObject unwrap(FileObject file) {
+            return file instanceof HashedSource ? ((HashedSource) file).source() : file;
+        }
+
+        @Override
+        public Iterable<JavaFileObject> list(Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+                throws IOException {
+            List<JavaFileObject> files = new ArrayList<>();
+            for (JavaFileObject file : super.list(location, packageName, kinds, recurse)) {
+                files.add(wrap(file));
+            }
+            return files;
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForInput(Location location, String className, JavaFileObject.Kind kind) throws IOException {
+            JavaFileObject file = super.getJavaFileForInput(location, className, kind);
+            return file == null ? null : wrap(file);
+        }
+
+        @Override
+        public JavaFileObject getJavaFileForOutput(Location location, String className, JavaFileObject.Kind kind, FileObject sibling)
+                throws IOException {
+            return super.getJavaFileForOutput(location, className, kind, unwrap(sibling));
+        }
+
+        @Override
+        public String inferBinaryName(Location location, JavaFileObject file) {
+            return super.inferBinaryName(location, unwrap(file));
+        }
+
+        @Override
+        public boolean isSameFile(FileObject a, FileObject b) {
+            return super.isSameFile(unwrap(a), unwrap(b));
+        }
+    }
+
+    /**
+     * A source file that is read only once, on the first call of {@link #getCharContent(boolean)}, which also records the hash of the bytes read.
+     * Later calls, eg. for the source line of a diagnostic, get the same content, also if the file has been saved since.
+     */
+    private static final class HashedSource extends ForwardingJavaFileObject<JavaFileObject> {
+
+        private final Map<Path, byte[]> hashes;
+        private String content;
+
+        HashedSource(JavaFileObject source, Map<Path, byte[]> hashes) {
+            super(source);
+            this.hashes = hashes;
+        }
+
+        JavaFileObject source() {
+            return fileObject;
+        }
+
+        @Override
+        public synchronized CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+            if (content == null) {
+                Path path = Paths.get(toUri()).normalize();
+                byte[] bytes = Files.readAllBytes(path);
+                hashes.put(path, BuildCache.sha256(bytes));
+                // the same as -encoding UTF-8
+                content = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return content;
+        }
+    }
+}
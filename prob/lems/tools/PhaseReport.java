@@ -0,0 +1,171 @@
+package prob.lems.tools;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import com.sun.source.util.TaskEvent;
+
+/**
+ * Where javac with Lombok spends its time for each case, measured with {@link PhaseTimer}.<br>
+ * <br>
+ * For every case and Lombok version this writes {@code build/phases/<case>-<version>.json} and prints the time of the phases.
+ * Then it measures the overhead of the timer itself, by compiling all cases alternately with and without it,
+ * and compares {@code suppressBaseMethods=false}, as used by the workaround cases, with the default {@code true}:
+ * a copy of the case without {@code suppressBaseMethods=false} is compiled from {@code build/phases/variant}.
+ * Note that with {@code true} the workaround cases do not compile, so javac also spends time on the errors there.<br>
+ * <br>
+ * Usage: {@code PhaseReport [--runs n] [--lombok jar]... [case.java]...}, run it with {@code make phases}.
+ */
+public class PhaseReport {
+
+    private static final Path OUTPUT = Paths.get("build/phases");
+    private static final String WORKAROUND = ", suppressBaseMethods=false";
+
+    public static void main(String[] args) throws Exception {
+        int runs = 7;
+        List<Path> jars = new ArrayList<>();
+        List<Path> sources = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--runs")) {
+                runs = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--lombok")) {
+                jars.add(Paths.get(args[++i]));
+            } else {
+                sources.add(Paths.get(args[i]));
+            }
+        }
+        List<CompileMatrix.Case> cases = CompileMatrix.cases(sources.isEmpty() ? CompileMatrix.defaultCases() : sources);
+        List<LombokCompiler> compilers = CompileMatrix.compilers(jars.isEmpty() ? CompileMatrix.defaultJars() : jars);
+        Files.createDirectories(OUTPUT);
+        List<String> options = Collections.singletonList("-nowarn");
+
+        // warm up, so the phases are not dominated by class loading and the interpreter
+        for (int i = 0; i < 3; i++) {
+            for (LombokCompiler compiler : compilers) {
+                for (CompileMatrix.Case c : cases) {
+                    compiler.compile(Collections.singletonList(c.source), options);
+                }
+            }
+        }
+
+        System.out.printf(Locale.ROOT, "ms per phase (own time, without the nested phases), lambda attributions estimated by PhaseTimer%n");
+        System.out.printf(Locale.ROOT, "%-42s %8s %8s %8s %8s %8s %8s %10s%n", "case", "parse", "enter", "process", "analyze", "generate",
+                "MB", "lambdas");
+        for (LombokCompiler compiler : compilers) {
+            for (CompileMatrix.Case c : cases) {
+                PhaseTimer timer = timed(compiler, c.source, Collections.singletonList(Paths.get(".")), options);
+                timer.write(OUTPUT.resolve(c.name() + "-" + compiler.version() + ".json"));
+                StringBuilder line = new StringBuilder(String.format(Locale.ROOT, "%-42s", c.name() + " " + compiler.version()));
+                for (long nanos : new long[] { timer.nanos(TaskEvent.Kind.PARSE), timer.nanos(TaskEvent.Kind.ENTER), processing(timer),
+                        timer.nanos(TaskEvent.Kind.ANALYZE), timer.nanos(TaskEvent.Kind.GENERATE) }) {
+                    line.append(String.format(Locale.ROOT, " %8.1f", nanos / 1e6));
+                }
+                line.append(String.format(Locale.ROOT, " %8.1f %10d", timer.allocated() / 1e6, timer.lambdaAttributions()));
+                System.out.println(line);
+            }
+        }
+
+        LombokCompiler newest = compilers.get(compilers.size() - 1);
+        overhead(newest, cases, options, runs);
+        for (CompileMatrix.Case c : cases) {
+            String source = new String(Files.readAllBytes(c.source), StandardCharsets.UTF_8);
+            if (source.contains(WORKAROUND)) {
+                suppressBaseMethods(newest, c, source, options, runs);
+            }
+        }
+        for (LombokCompiler compiler : compilers) {
+            compiler.close();
+        }
+    }
+
+    private static PhaseTimer timed(LombokCompiler compiler, Path source, List<Path> sourcePath, List<String> options) {
+        PhaseTimer[] timer = new PhaseTimer[1];
+        compiler.compile(Collections.singletonList(source), withSourcePath(options, sourcePath), task -> timer[0] = PhaseTimer.attach(task));
+        return timer[0];
+    }
+
+    private static List<String> withSourcePath(List<String> options, List<Path> sourcePath) {
+        List<String> allOptions = new ArrayList<>(options);
+        allOptions.add("-sourcepath");
+        allOptions.add(sourcePath.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator)));
+        return allOptions;
+    }
+
+    /** the median time of all cases with and without the timer, alternating, so both see the same state of the JIT and GC */
+    private static void overhead(LombokCompiler compiler, List<CompileMatrix.Case> cases, List<String> options, int runs) {
+        long[] without = new long[runs];
+        long[] with = new long[runs];
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            for (CompileMatrix.Case c : cases) {
+                compiler.compile(Collections.singletonList(c.source), options);
+            }
+            without[run] = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (CompileMatrix.Case c : cases) {
+                timed(compiler, c.source, Collections.singletonList(Paths.get(".")), options);
+            }
+            with[run] = System.nanoTime() - start;
+        }
+        long a = median(without);
+        long b = median(with);
+        System.out.printf(Locale.ROOT, "%nall cases with lombok %s, median of %d runs: %.1f ms without the timer, %.1f ms with it (%+.1f%%)%n",
+                compiler.version(), runs, a / 1e6, b / 1e6, 100.0 * (b - a) / a);
+    }
+
+    /** the case as it is, against a copy without {@code suppressBaseMethods=false} */
+    private static void suppressBaseMethods(LombokCompiler compiler, CompileMatrix.Case c, String source, List<String> options, int runs)
+            throws IOException {
+        Path variantRoot = OUTPUT.resolve("variant");
+        Path variant = variantRoot.resolve(c.source.toString());
+        Files.createDirectories(variant.getParent());
+        Files.write(variant, source.replace(WORKAROUND, "").getBytes(StandardCharsets.UTF_8));
+        String outer = c.source.toString().replaceFirst("\\.java$", "").replace('/', '.').replace('\\', '.');
+
+        System.out.printf(Locale.ROOT, "%n%s with lombok %s, median of %d runs%n", c.name(), compiler.version(), runs);
+        System.out.printf(Locale.ROOT, "%-28s %8s %8s %8s %8s %10s %7s%n", "", "process", "analyze", "total", "MB", "lambdas", "errors");
+        print("suppressBaseMethods=false", compiler, c.source, Collections.singletonList(Paths.get(".")), outer, options, runs);
+        print("suppressBaseMethods=true", compiler, variant, Arrays.asList(variantRoot, Paths.get(".")), outer, options, runs);
+    }
+
+    private static void print(String label, LombokCompiler compiler, Path source, List<Path> sourcePath, String outer, List<String> options,
+            int runs) {
+        long[] process = new long[runs];
+        long[] analyze = new long[runs];
+        long[] total = new long[runs];
+        long[] allocated = new long[runs];
+        PhaseTimer timer = null;
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            timer = timed(compiler, source, sourcePath, options);
+            total[run] = System.nanoTime() - start;
+            process[run] = processing(timer);
+            analyze[run] = timer.nanos(TaskEvent.Kind.ANALYZE);
+            allocated[run] = timer.allocated();
+        }
+        int errors = compiler.compile(Collections.singletonList(source), withSourcePath(options, sourcePath)).errors().size();
+        System.out.printf(Locale.ROOT, "%-28s %8.1f %8.1f %8.1f %8.1f %10d %7d%n", label, median(process) / 1e6, median(analyze) / 1e6,
+                median(total) / 1e6, median(allocated) / 1e6, timer.lambdaAttributions(outer), errors);
+    }
+
+    /** Lombok's handlers run in the rounds, their setup and the entering of the rewritten trees outside of them */
+    private static long processing(PhaseTimer timer) {
+        return timer.nanos(TaskEvent.Kind.ANNOTATION_PROCESSING) + timer.nanos(TaskEvent.Kind.ANNOTATION_PROCESSING_ROUND);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
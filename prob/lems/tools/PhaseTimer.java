@@ -0,0 +1,342 @@
+package prob.lems.tools;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+
+import com.sun.source.tree.ClassTree;
+import com.sun.source.tree.CompilationUnitTree;
+import com.sun.source.tree.ExpressionTree;
+import com.sun.source.tree.LambdaExpressionTree;
+import com.sun.source.tree.MethodInvocationTree;
+import com.sun.source.tree.MethodTree;
+import com.sun.source.util.JavacTask;
+import com.sun.source.util.Plugin;
+import com.sun.source.util.TaskEvent;
+import com.sun.source.util.TaskListener;
+import com.sun.source.util.TreePath;
+import com.sun.source.util.TreePathScanner;
+import com.sun.source.util.Trees;
+
+/**
+ * Records where javac spends its time: nanoseconds and allocated bytes per phase and per compilation unit,
+ * and how often the lambdas of every method are attributed.<br>
+ * <br>
+ * The phases are the events of {@link TaskListener}: {@code PARSE}, {@code ENTER}, {@code ANNOTATION_PROCESSING_ROUND} (where Lombok's
+ * handlers run, including their own attribution of the code they rewrite), {@code ANALYZE} (attribution and flow analysis)
+ * and {@code GENERATE}. The events are nested, eg. the {@code ENTER} of each annotation processing round, so every phase has its
+ * own ({@code nanos}) and its inclusive time. Javac does not report how often it attributes a method body: it attributes an implicit
+ * lambda once more for every overload candidate of the method it is passed to, and the lambdas nested in it again with each of these.
+ * So {@code lambdaAttributions} estimates that from the attributed tree: for every implicit lambda the product of the
+ * overload counts (same name and arity) of all methods it is passed to, directly or through enclosing lambdas.<br>
+ * <br>
+ * Either attach it to a task with {@link #attach}, or use it as a javac plugin:
+ * after {@code make phases}, which puts it with its {@code META-INF/services} into {@code build/phases/plugin}:
+ * {@code javac -cp lombok.jar:. -processorpath build/phases/plugin:lombok.jar -Xplugin:"PhaseTimer report=build/phases/X.json" X.java}.<br>
+ * The overhead is one timer and one allocation counter read per event, and one scan of each class.
+ */
+public final class PhaseTimer implements Plugin, TaskListener {
+
+    /** time and allocation of one phase */
+    static final class Phase {
+        long nanos;
+        long inclusiveNanos;
+        long allocated;
+        int count;
+
+        void add(long self, long inclusive, long bytes) {
+            nanos += self;
+            inclusiveNanos += inclusive;
+            allocated += bytes;
+            count++;
+        }
+    }
+
+    /** the attribution estimate for one method */
+    static final class MethodStats {
+        final String owner;
+        final String method;
+        int implicitLambdas;
+        long lambdaAttributions;
+
+        MethodStats(String owner, String method) {
+            this.owner = owner;
+            this.method = method;
+        }
+    }
+
+    /** an event that has started, but not yet finished */
+    private static final class Open {
+        final TaskEvent.Kind kind;
+        final long start;
+        final long allocatedAtStart;
+        long children;
+        long childrenAllocated;
+
+        Open(TaskEvent.Kind kind, long start, long allocatedAtStart) {
+            this.kind = kind;
+            this.start = start;
+            this.allocatedAtStart = allocatedAtStart;
+        }
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    private final Map<TaskEvent.Kind, Phase> phases = new EnumMap<>(TaskEvent.Kind.class);
+    private final Map<String, Map<TaskEvent.Kind, Phase>> units = new TreeMap<>();
+    private final List<MethodStats> methods = new ArrayList<>();
+    private final Deque<Open> open = new ArrayDeque<>();
+    /** the overload count by invoked method and arity, the same methods are called all over */
+    private final Map<List<Object>, Long> candidates = new HashMap<>();
+    private Trees trees;
+    private Elements elements;
+
+    @Override
+    public String getName() {
+        return "PhaseTimer";
+    }
+
+    /** as a plugin: {@code report=file} writes the JSON report to that file, when javac exits */
+    @Override
+    public void init(JavacTask task, String... args) {
+        setUp(task);
+        for (String arg : args) {
+            if (arg.startsWith("report=")) {
+                Path report = Paths.get(arg.substring("report=".length()));
+                Runtime.getRuntime().addShutdownHook(new Thread(() -> write(report)));
+            }
+        }
+    }
+
+    public static PhaseTimer attach(JavacTask task) {
+        PhaseTimer timer = new PhaseTimer();
+        timer.setUp(task);
+        return timer;
+    }
+
+    private void setUp(JavacTask task) {
+        trees = Trees.instance(task);
+        elements = task.getElements();
+        task.addTaskListener(this);
+    }
+
+    @Override
+    public void started(TaskEvent event) {
+        open.push(new Open(event.getKind(), System.nanoTime(), threadAllocated()));
+    }
+
+    @Override
+    public void finished(TaskEvent event) {
+        long end = System.nanoTime();
+        long allocated = threadAllocated();
+        Open started = open.isEmpty() ? null : open.pop();
+        if (started == null || started.kind != event.getKind()) {
+            return; // a listener added in the middle of an event
+        }
+        long inclusive = end - started.start;
+        long bytes = allocated - started.allocatedAtStart;
+        long self = inclusive - started.children;
+        long selfBytes = bytes - started.childrenAllocated;
+        if (!open.isEmpty()) {
+            open.peek().children += inclusive;
+            open.peek().childrenAllocated += bytes;
+        }
+        phases.computeIfAbsent(event.getKind(), kind -> new Phase()).add(self, inclusive, selfBytes);
+        if (event.getSourceFile() != null) {
+            units.computeIfAbsent(event.getSourceFile().getName(), name -> new EnumMap<>(TaskEvent.Kind.class))
+                    .computeIfAbsent(event.getKind(), kind -> new Phase()).add(self, inclusive, selfBytes);
+        }
+        if (event.getKind() == TaskEvent.Kind.ANALYZE && event.getTypeElement() != null && event.getCompilationUnit() != null) {
+            long scanStart = System.nanoTime();
+            TreePath path = trees.getPath(event.getTypeElement());
+            if (path != null) {
+                new LambdaCounter(event.getCompilationUnit()).scan(path, 1L);
+            }
+            // not part of the compilation, keep it out of the enclosing phase
+            if (!open.isEmpty()) {
+                open.peek().children += System.nanoTime() - scanStart;
+            }
+        }
+    }
+
+    private static long threadAllocated() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /** counts the implicit lambdas of each method, the parameter is the number of attributions of the enclosing lambdas */
+    private final class LambdaCounter extends TreePathScanner<Void, Long> {
+        private final CompilationUnitTree unit;
+        private final Deque<String> classes = new ArrayDeque<>();
+        private MethodStats method;
+
+        LambdaCounter(CompilationUnitTree unit) {
+            this.unit = unit;
+        }
+
+        @Override
+        public Void visitClass(ClassTree tree, Long attributions) {
+            Element element = trees.getElement(getCurrentPath());
+            classes.push(element instanceof TypeElement ? ((TypeElement) element).getQualifiedName().toString()
+                    : (classes.isEmpty() ? "" : classes.peek()) + "$" + tree.getSimpleName());
+            MethodStats outer = method;
+            method = null;
+            super.visitClass(tree, 1L);
+            method = outer;
+            classes.pop();
+            return null;
+        }
+
+        @Override
+        public Void visitMethod(MethodTree tree, Long attributions) {
+            MethodStats outer = method;
+            method = new MethodStats(classes.peek(), tree.getName() + "()");
+            super.visitMethod(tree, 1L);
+            if (method.implicitLambdas > 0) {
+                methods.add(method);
+            }
+            method = outer;
+            return null;
+        }
+
+        @Override
+        public Void visitMethodInvocation(MethodInvocationTree tree, Long attributions) {
+            scan(tree.getMethodSelect(), attributions);
+            scan(tree.getTypeArguments(), attributions);
+            long overloads = candidates(tree);
+            for (ExpressionTree argument : tree.getArguments()) {
+                scan(argument, argument instanceof LambdaExpressionTree ? attributions * overloads : attributions);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitLambdaExpression(LambdaExpressionTree tree, Long attributions) {
+            boolean implicit = tree.getParameters().stream().anyMatch(parameter -> parameter.getType() == null
+                    || trees.getSourcePositions().getStartPosition(unit, parameter.getType()) < 0);
+            if (implicit && method != null) {
+                method.implicitLambdas++;
+                method.lambdaAttributions += attributions;
+            }
+            return super.visitLambdaExpression(tree, attributions);
+        }
+
+        /** the overloads javac has to try for an invocation: methods of the same class with the same name and arity */
+        private long candidates(MethodInvocationTree tree) {
+            Element invoked = trees.getElement(new TreePath(getCurrentPath(), tree));
+            if (!(invoked instanceof ExecutableElement) || !(invoked.getEnclosingElement() instanceof TypeElement)) {
+                return 1;
+            }
+            int arity = tree.getArguments().size();
+            return candidates.computeIfAbsent(Arrays.asList(invoked, arity), key -> count((ExecutableElement) invoked, arity));
+        }
+
+        private long count(ExecutableElement invoked, int arity) {
+            long count = elements.getAllMembers((TypeElement) invoked.getEnclosingElement()).stream()
+                    .filter(member -> member.getKind() == ElementKind.METHOD && member.getSimpleName().equals(invoked.getSimpleName()))
+                    .filter(member -> ((ExecutableElement) member).getParameters().size() == arity || ((ExecutableElement) member).isVarArgs())
+                    .count();
+            return Math.max(1, count);
+        }
+    }
+
+    // --- the report
+
+    public long nanos(TaskEvent.Kind kind) {
+        Phase phase = phases.get(kind);
+        return phase == null ? 0 : phase.nanos;
+    }
+
+    /** the bytes allocated by javac in all phases */
+    public long allocated() {
+        return phases.values().stream().mapToLong(phase -> phase.allocated).sum();
+    }
+
+    public long lambdaAttributions() {
+        return methods.stream().mapToLong(m -> m.lambdaAttributions).sum();
+    }
+
+    /** the lambda attributions of the methods of {@code owner} and its nested classes */
+    public long lambdaAttributions(String owner) {
+        return methods.stream().filter(m -> m.owner.equals(owner) || m.owner.startsWith(owner + ".") || m.owner.startsWith(owner + "$"))
+                .mapToLong(m -> m.lambdaAttributions).sum();
+    }
+
+    public void write(Path file) {
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Files.write(file, toJson().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"phases\": ");
+        appendPhases(json, phases, "  ");
+        json.append(",\n  \"units\": {");
+        String separator = "\n";
+        for (Map.Entry<String, Map<TaskEvent.Kind, Phase>> unit : units.entrySet()) {
+            json.append(separator).append("    ").append(quote(unit.getKey())).append(": ");
+            appendPhases(json, unit.getValue(), "    ");
+            separator = ",\n";
+        }
+        json.append("\n  },\n  \"methods\": [");
+        separator = "\n";
+        for (MethodStats method : methods) {
+            json.append(separator).append(String.format("    {\"class\": %s, \"method\": %s, \"implicitLambdas\": %d, \"lambdaAttributions\": %d}",
+                    quote(method.owner), quote(method.method), method.implicitLambdas, method.lambdaAttributions));
+            separator = ",\n";
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    private static void appendPhases(StringBuilder json, Map<TaskEvent.Kind, Phase> phases, String indent) {
+        json.append("{");
+        String separator = "\n";
+        for (Map.Entry<TaskEvent.Kind, Phase> entry : phases.entrySet()) {
+            Phase phase = entry.getValue();
+            json.append(separator).append(indent).append("  ").append(String.format(
+                    "%s: {\"nanos\": %d, \"inclusiveNanos\": %d, \"allocatedBytes\": %d, \"count\": %d}",
+                    quote(entry.getKey().name()), phase.nanos, phase.inclusiveNanos, phase.allocated, phase.count));
+            separator = ",\n";
+        }
+        json.append("\n").append(indent).append("}");
+    }
+
+    static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
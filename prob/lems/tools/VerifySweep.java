@@ -0,0 +1,227 @@
+package prob.lems.tools;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Loads and verifies every class of a build, to find a {@link VerifyError} before the class is used, see {@link prob.lems.JNIProblem}:
+ * when Eclipse compiles it, the call to {@code hello(String, long)} gets an {@code int} and fails with "Bad type on operand stack".<br>
+ * <br>
+ * The classes are split into chunks for a fixed pool of workers, each worker defines them in its own class loader (a child of the
+ * platform class loader, so it only sees the JDK and the given class files) and links them, which runs the verifier, as for all
+ * classes that are not loaded by the boot loader. Class files in directories are defined straight from their memory-mapped buffer.<br>
+ * <br>
+ * The JVM stops at the first method that fails. So for every failing method this reports the error with its bytecode offset,
+ * replaces the body of that method with {@code aconst_null; athrow} and verifies the class again, until the rest passes.
+ * Classes that cannot be loaded at all, eg. because a class they need is missing, are reported as well.<br>
+ * <br>
+ * Usage: {@code VerifySweep [--threads n] <class dir or jar>...}, exits with 1 if anything failed, run it with {@code make verify}.
+ */
+public class VerifySweep {
+
+    // HotSpot: "Location:\n    prob/lems/JNIProblem.someMethod()V @5: invokestatic"
+    private static final Pattern LOCATION = Pattern.compile("Location:\\s*(\\S+)\\.([^.\\s]+\\(\\S*) @(\\d+): (\\S+)");
+    private static final int CHUNK = 256;
+    // a class cannot have more failing methods than that, unless patching does not help
+    private static final int MAX_PATCHES = 256;
+
+    /** the problems found in one chunk of classes */
+    static final class Report {
+        int classes;
+        final List<String> problems = new ArrayList<>();
+    }
+
+    /** defines the classes of the build, from their (memory-mapped) class files */
+    static final class SweepLoader extends ClassLoader {
+        private final Map<String, ClassFiles.Entry> entries;
+        private final String patchedName;
+        private final ByteBuffer patched;
+
+        SweepLoader(Map<String, ClassFiles.Entry> entries) {
+            super(ClassLoader.getSystemClassLoader().getParent());
+            this.entries = entries;
+            this.patchedName = null;
+            this.patched = null;
+        }
+
+        /** a loader for one class with patched methods, it takes all other classes from {@code parent} */
+        SweepLoader(SweepLoader parent, String name, ByteBuffer patched) {
+            super(parent);
+            this.entries = parent.entries;
+            this.patchedName = name;
+            this.patched = patched;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.equals(patchedName)) {
+                synchronized (getClassLoadingLock(name)) {
+                    Class<?> loaded = findLoadedClass(name);
+                    return loaded != null ? loaded : defineClass(name, patched.duplicate(), null);
+                }
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            ClassFiles.Entry entry = entries.get(name);
+            if (entry == null) {
+                throw new ClassNotFoundException(name);
+            }
+            return defineClass(name, entry.read(), null);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<Path> roots = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                roots.add(Paths.get(args[i]));
+            }
+        }
+        long start = System.nanoTime();
+        Map<String, ClassFiles.Entry> entries = new HashMap<>();
+        for (ClassFiles.Entry entry : ClassFiles.list(roots)) {
+            entries.putIfAbsent(entry.className(), entry);
+        }
+        List<String> names = new ArrayList<>(entries.keySet());
+        names.sort(null);
+
+        // daemon threads, so a failing worker cannot keep the JVM alive
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "VerifySweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ThreadLocal<SweepLoader> loaders = ThreadLocal.withInitial(() -> new SweepLoader(entries));
+        CompletionService<Report> reports = new ExecutorCompletionService<>(executor);
+        int classes = 0;
+        int problems = 0;
+        try {
+            int chunks = 0;
+            for (int from = 0; from < names.size(); from += CHUNK) {
+                List<String> chunk = names.subList(from, Math.min(from + CHUNK, names.size()));
+                reports.submit(() -> verify(chunk, loaders.get()));
+                chunks++;
+            }
+            for (int i = 0; i < chunks; i++) {
+                Report report = reports.take().get();
+                classes += report.classes;
+                problems += report.problems.size();
+                report.problems.forEach(System.out::println);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        System.out.printf(Locale.ROOT, "%d classes, %d problems (%d ms, %d threads)%n", classes, problems, (System.nanoTime() - start) / 1_000_000,
+                threads);
+        if (problems > 0) {
+            System.exit(1);
+        }
+    }
+
+    static Report verify(List<String> names, SweepLoader loader) {
+        Report report = new Report();
+        for (String name : names) {
+            report.classes++;
+            verify(name, loader, report.problems);
+        }
+        return report;
+    }
+
+    /**
+     * Loads and links the class, and on a verification error the class again, without the failing method.
+     * An error in another class, eg. the super class, is reported for this class once, that class is verified by itself.
+     */
+    private static void verify(String name, SweepLoader base, List<String> problems) {
+        SweepLoader loader = base;
+        ByteBuffer bytes = null;
+        for (int patches = 0;; patches++) {
+            try {
+                Class<?> loaded = Class.forName(name, false, loader);
+                // links the class (HotSpot does that before it lists the methods), which verifies it
+                loaded.getDeclaredMethods();
+                return;
+            } catch (VerifyError e) {
+                Matcher location = LOCATION.matcher(e.getMessage() == null ? "" : e.getMessage());
+                if (!location.find()) {
+                    problems.add(name + ": " + firstLine(e));
+                    return;
+                }
+                String failing = location.group(1).replace('/', '.');
+                if (!failing.equals(name)) {
+                    String superName = ClassFile.parse(base.entries.get(name).read()).superName();
+                    String kind = superName != null && superName.replace('/', '.').equals(failing) ? "superclass " : "";
+                    problems.add(name + ": " + kind + failing + " failed verification");
+                    return;
+                }
+                String method = location.group(2);
+                problems.add(String.format("%s.%s @%s %s: %s", name, method, location.group(3), location.group(4), firstLine(e)));
+                if (patches == MAX_PATCHES) {
+                    problems.add(name + ": gave up after " + MAX_PATCHES + " failing methods");
+                    return;
+                }
+                bytes = withoutMethod(bytes != null ? bytes : base.entries.get(name).read(), method);
+                if (bytes == null) {
+                    return;
+                }
+                loader = new SweepLoader(base, name, bytes);
+            } catch (LinkageError | ClassNotFoundException | SecurityException e) {
+                problems.add(name + ": cannot load, " + e);
+                return;
+            }
+        }
+    }
+
+    private static String firstLine(Throwable e) {
+        String message = e.getMessage() == null ? e.toString() : e.getMessage();
+        int newline = message.indexOf('\n');
+        return newline < 0 ? message : message.substring(0, newline);
+    }
+
+    /** a copy of the class file, with the body of {@code method} (name and descriptor) replaced, {@code null} if it has no such method */
+    static ByteBuffer withoutMethod(ByteBuffer classBytes, String method) {
+        ClassFile classFile = ClassFile.parse(classBytes);
+        for (ClassFile.Method candidate : classFile.methods()) {
+            if (candidate.hasCode() && method.equals(candidate.name() + candidate.descriptor())) {
+                int code = candidate.codeOffset();
+                int oldLength = classBytes.getInt(code - 4);
+                ByteBuffer patched = ByteBuffer.allocate(classBytes.limit() - oldLength + 14);
+                ByteBuffer source = classBytes.duplicate();
+                source.limit(code - 4);
+                source.position(0);
+                patched.put(source);
+                patched.putInt(14);
+                patched.putShort((short) 1); // max stack
+                patched.putShort((short) candidate.maxLocals());
+                patched.putInt(2);
+                patched.put((byte) 0x01); // aconst_null
+                patched.put((byte) 0xBF); // athrow
+                patched.putShort((short) 0); // no exception handlers
+                patched.putShort((short) 0); // no attributes, a straight line needs no StackMapTable
+                source.limit(classBytes.limit());
+                source.position(code + oldLength);
+                patched.put(source);
+                patched.flip();
+                return patched;
+            }
+        }
+        return null;
+    }
+}